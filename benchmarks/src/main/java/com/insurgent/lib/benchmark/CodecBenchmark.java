@@ -0,0 +1,130 @@
+package com.insurgent.lib.benchmark;
+
+import cn.nukkit.utils.ConfigSection;
+import com.insurgent.lib.api.player.RPGPlayerData;
+import com.insurgent.lib.benchmark.data.BenchPlayerData;
+import com.insurgent.lib.database.codec.BinaryCodec;
+import com.insurgent.lib.database.codec.SQLCodec;
+import com.insurgent.lib.database.codec.YAMLCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.*;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codecs derived from the same schema, without any storage. SQL codecs
+ * bind and read parameters of an embedded database without executing
+ * any statement, so every codec only measures the mapping.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CodecBenchmark {
+    private final BinaryCodec<BenchPlayerData> binary = new BinaryCodec<>(BenchPlayerData.SCHEMA);
+    private final YAMLCodec<BenchPlayerData> yaml = new YAMLCodec<>(BenchPlayerData.SCHEMA);
+    private final SQLCodec<BenchPlayerData> sql = new SQLCodec<>(BenchPlayerData.SCHEMA, BenchPlayerData.TABLE, "uuid");
+
+    private BenchPlayerData source, target;
+    private byte[] encoded;
+    private ConfigSection section;
+
+    /**
+     * Buffer reused by {@link #binaryEncodeReused()}
+     */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream output = new DataOutputStream(buffer);
+
+    private Connection connection;
+    private PreparedStatement upsert, select;
+    private ResultSet row;
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        source = new BenchPlayerData(new RPGPlayerData(UUID.randomUUID()));
+        source.fill(42);
+        target = new BenchPlayerData(new RPGPlayerData(UUID.randomUUID()));
+        encoded = binary.encode(source);
+        section = new ConfigSection();
+        yaml.encode(source, section);
+
+        connection = DriverManager.getConnection("jdbc:h2:mem:codecbenchmark;MODE=MySQL;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(BenchPlayerData.CREATE_TABLE);
+        }
+        upsert = connection.prepareStatement(sql.getUpsertStatement());
+        sql.bind(upsert, source, true);
+        upsert.executeUpdate();
+
+        // Row stays selected, decoding reads the same row again
+        select = connection.prepareStatement("SELECT * FROM `" + BenchPlayerData.TABLE + "` WHERE `uuid` = ?");
+        select.setString(1, source.getUniqueId().toString());
+        row = select.executeQuery();
+        if (!row.next()) throw new IllegalStateException("Row was not saved");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        row.close();
+        select.close();
+        upsert.close();
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DROP TABLE `" + BenchPlayerData.TABLE + "`");
+        }
+        connection.close();
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() throws IOException {
+        return binary.encode(source);
+    }
+
+    /**
+     * Encodes in a buffer owned by the caller, as the binary
+     * handler does with its thread-local buffer
+     */
+    @Benchmark
+    public int binaryEncodeReused() throws IOException {
+        buffer.reset();
+        output.writeInt(binary.getVersion());
+        binary.encode(source, output);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public BenchPlayerData binaryDecode() throws IOException {
+        binary.decode(target, encoded);
+        return target;
+    }
+
+    @Benchmark
+    public ConfigSection yamlEncode() {
+        final ConfigSection config = new ConfigSection();
+        yaml.encode(source, config);
+        return config;
+    }
+
+    @Benchmark
+    public BenchPlayerData yamlDecode() {
+        yaml.decode(target, section);
+        return target;
+    }
+
+    @Benchmark
+    public PreparedStatement sqlBind() throws SQLException {
+        sql.bind(upsert, source, true);
+        return upsert;
+    }
+
+    @Benchmark
+    public BenchPlayerData sqlDecode() throws SQLException {
+        sql.decode(target, row);
+        return target;
+    }
+}
@@ -0,0 +1,161 @@
+package com.insurgent.lib.benchmark;
+
+import cn.nukkit.Player;
+import cn.nukkit.Server;
+import cn.nukkit.plugin.PluginBase;
+import cn.nukkit.plugin.PluginManager;
+import cn.nukkit.utils.LogLevel;
+import com.insurgent.lib.WyndoriaLib;
+import com.insurgent.lib.database.DataExecutor;
+import com.insurgent.lib.database.LoadCoordinator;
+import com.insurgent.lib.database.LoadScheduler;
+import com.insurgent.lib.manager.ConfigManager;
+import com.insurgent.lib.metrics.DataMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.mockito.invocation.InvocationOnMock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Runs WyndoriaLib without a server. The plugin instance, owning plugins
+ * and players are stubs, everything else is the actual implementation.
+ * Stubs never record invocations, so they do not allocate once set up.
+ */
+public class Headless {
+    private static final Set<String> QUIET_LOGS = Set.of("info", "debug", "notice");
+
+    private static WyndoriaLib lib;
+    private static ConfigManager config;
+    private static DataMetrics metrics;
+
+    /**
+     * Sets up {@link WyndoriaLib#instance} with the default configuration.
+     * Does nothing if it is already set up.
+     *
+     * @param ioThreads          Amount of IO threads
+     * @param maxConcurrentLoads Amount of loads running at the same time
+     * @return WyndoriaLib configuration, which can still be changed
+     */
+    public static synchronized ConfigManager bootstrap(int ioThreads, int maxConcurrentLoads) {
+        if (lib != null) return config;
+
+        config = new ConfigManager();
+        config.maxSyncTries = 5;
+        config.ioVirtualThreads = false;
+        config.ioThreads = ioThreads;
+        config.ioMaxPending = 100000;
+        config.saveBatchSize = 100;
+        config.shutdownSaveTimeout = 60000;
+        config.playerCacheSize = 10000;
+        config.playerCacheSweepPeriod = 300;
+        config.offlineCacheSize = 1000;
+        config.offlineCacheExpiry = 300000;
+        config.handoffCacheExpiry = 60000;
+        config.maxConcurrentLoads = maxConcurrentLoads;
+        config.autosaveEnabled = false;
+        metrics = new DataMetrics();
+
+        lib = mock(WyndoriaLib.class, withSettings().stubOnly());
+        final DataExecutor executor = new DataExecutor(config.ioVirtualThreads, config.ioThreads, config.ioMaxPending);
+        final LoadScheduler loadScheduler = new LoadScheduler(config.maxConcurrentLoads);
+        final LoadCoordinator loadCoordinator = new LoadCoordinator();
+        final Object logger = logger();
+        doReturn(config).when(lib).getConfigManager();
+        doReturn(executor).when(lib).getDataExecutor();
+        doReturn(loadScheduler).when(lib).getLoadScheduler();
+        doReturn(loadCoordinator).when(lib).getLoadCoordinator();
+        doReturn(metrics).when(lib).getMetrics();
+        doReturn(logger).when(lib).getLogger();
+        doReturn("WyndoriaLib").when(lib).getName();
+        WyndoriaLib.instance = lib;
+        return config;
+    }
+
+    public static ConfigManager bootstrap() {
+        return bootstrap(Runtime.getRuntime().availableProcessors() * 2, 10);
+    }
+
+    @NotNull
+    public static DataMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param name Plugin name
+     * @return Plugin owning data, with its own temporary data folder
+     */
+    @NotNull
+    public static PluginBase plugin(@NotNull String name) {
+        final File dataFolder;
+        try {
+            dataFolder = Files.createTempDirectory("wyndorialib-" + name).toFile();
+        } catch (IOException exception) {
+            throw new IllegalStateException("Could not create data folder of " + name, exception);
+        }
+
+        final PluginManager pluginManager = mock(PluginManager.class, withSettings().stubOnly());
+        final Server server = mock(Server.class, withSettings().stubOnly());
+        doReturn(pluginManager).when(server).getPluginManager();
+
+        final PluginBase plugin = mock(PluginBase.class, withSettings().stubOnly());
+        final Object logger = logger();
+        doReturn(name).when(plugin).getName();
+        doReturn(dataFolder).when(plugin).getDataFolder();
+        doReturn(server).when(plugin).getServer();
+        doReturn(logger).when(plugin).getLogger();
+        return plugin;
+    }
+
+    /**
+     * @param uuid Player unique id
+     * @return Online player
+     */
+    @NotNull
+    public static Player player(@NotNull UUID uuid) {
+        final Player player = mock(Player.class, withSettings().stubOnly());
+        doReturn(uuid).when(player).getUniqueId();
+        doReturn(true).when(player).isOnline();
+        return player;
+    }
+
+    /**
+     * Deletes a data folder created by {@link #plugin(String)}
+     */
+    public static void delete(@NotNull File folder) {
+        final File[] children = folder.listFiles();
+        if (children != null) for (File child : children)
+            delete(child);
+        folder.delete();
+    }
+
+    /**
+     * Plugin loggers only print warnings and errors, as benchmarks
+     * would otherwise mostly measure console output.
+     */
+    private static Object logger() {
+        final Class<?> type;
+        try {
+            type = PluginBase.class.getMethod("getLogger").getReturnType();
+        } catch (NoSuchMethodException exception) {
+            throw new IllegalStateException("Could not find plugin logger type", exception);
+        }
+        return mock(type, withSettings().stubOnly().defaultAnswer(Headless::log));
+    }
+
+    private static Object log(InvocationOnMock invocation) throws Throwable {
+        final Object[] arguments = invocation.getArguments();
+        final String level = arguments.length > 1 && arguments[0] instanceof LogLevel ? ((LogLevel) arguments[0]).name() : invocation.getMethod().getName();
+        if (arguments.length > 0 && !QUIET_LOGS.contains(level.toLowerCase()))
+            System.err.println("[" + level.toUpperCase() + "] " + arguments[arguments.length - 1]);
+        return RETURNS_DEFAULTS.answer(invocation);
+    }
+}
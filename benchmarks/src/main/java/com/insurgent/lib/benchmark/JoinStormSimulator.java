@@ -0,0 +1,376 @@
+package com.insurgent.lib.benchmark;
+
+import cn.nukkit.Player;
+import cn.nukkit.plugin.PluginBase;
+import com.insurgent.lib.api.player.RPGPlayerData;
+import com.insurgent.lib.benchmark.data.BenchDataManager;
+import com.insurgent.lib.benchmark.data.BenchPlayerData;
+import com.insurgent.lib.benchmark.data.BenchSQLDataHandler;
+import com.insurgent.lib.benchmark.data.EmbeddedDatabase;
+import com.insurgent.lib.database.handoff.LocalSaveNotifier;
+import com.insurgent.lib.database.handoff.MemoryHandoffCache;
+import com.insurgent.lib.database.sql.SQLDataSource;
+import com.insurgent.lib.metrics.DataMetrics;
+import com.insurgent.lib.metrics.Histogram;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Reproduces restart and failover storms without a server. Several
+ * simulated servers, each with its own data manager and connection pool,
+ * share an embedded database, a handoff cache and a save notifier:
+ * <ol>
+ *     <li>every player joins at once, spread across servers</li>
+ *     <li>part of the players transfer to the next server, several times.
+ *     The previous server is still saving their data when the next one
+ *     starts loading it, so loads go through the 'is_saved' handoff</li>
+ *     <li>every player logs off and servers shut down</li>
+ * </ol>
+ * Every player data is modified after each load, and the harness keeps the
+ * value it expects to find. Loads reading an older value and rows left with
+ * an older value once servers are shut down are reported as lost saves.
+ * <p>
+ * Options are passed as 'key=value' arguments, see {@link Options}. The
+ * process exits with status 1 when saves were lost, loads failed or when
+ * the p99 time-to-loaded of a phase exceeds 'max-p99', so it can gate a deployment:
+ * <code>java -cp benchmarks.jar com.insurgent.lib.benchmark.JoinStormSimulator players=5000 latency=5 max-p99=2000</code>
+ */
+public class JoinStormSimulator {
+    private static final String DATABASE = "joinstorm";
+
+    private final Options options;
+    private final SimulatedServer[] servers;
+    private final List<SimulatedPlayer> players = new ArrayList<>();
+    private final Random random;
+
+    private final LongAdder loadFailures = new LongAdder(), staleLoads = new LongAdder();
+
+    /**
+     * Phase in which loads being started are reported
+     */
+    private volatile PhaseReport current;
+
+    public JoinStormSimulator(Options options) {
+        this.options = options;
+        this.random = new Random(options.seed);
+        Headless.bootstrap(options.ioThreads, options.maxConcurrentLoads).maxSyncTries = options.maxSyncTries;
+
+        final LocalSaveNotifier notifier = new LocalSaveNotifier();
+        final @Nullable MemoryHandoffCache handoffCache = options.handoff ? new MemoryHandoffCache() : null;
+        servers = new SimulatedServer[options.servers];
+        for (int i = 0; i < servers.length; i++)
+            servers[i] = new SimulatedServer("server-" + i, options, notifier, handoffCache);
+        servers[0].handler.setup();
+
+        for (int i = 0; i < options.players; i++) {
+            final Player player = Headless.player(new UUID(random.nextLong(), random.nextLong()));
+            RPGPlayerData.setup(player);
+            players.add(new SimulatedPlayer(player, i % servers.length));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = Options.parse(args);
+        System.out.println("Simulating " + options);
+        final boolean passed = new JoinStormSimulator(options).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * @return If no save was lost, no load failed and the p99 time-to-loaded of every phase is below the threshold
+     */
+    public boolean run() throws SQLException {
+        final List<PhaseReport> phases = new ArrayList<>();
+        phases.add(phase("Join storm", () -> {
+            final List<CompletableFuture<Void>> loads = new ArrayList<>();
+            for (SimulatedPlayer player : players)
+                loads.add(join(player));
+            return loads;
+        }));
+        for (int round = 1; round <= options.transferRounds; round++)
+            phases.add(phase("Transfers #" + round, () -> {
+                final List<CompletableFuture<Void>> loads = new ArrayList<>();
+                for (SimulatedPlayer player : players)
+                    if (random.nextDouble() < options.transferRatio) {
+                        leave(player);
+                        player.server = (player.server + 1) % servers.length;
+                        loads.add(join(player));
+                    }
+                return loads;
+            }));
+
+        // Log everyone off, closing managers waits for pending saves
+        final long shutdownStart = System.nanoTime();
+        for (SimulatedPlayer player : players)
+            if (player.data != null) leave(player);
+        for (SimulatedServer server : servers)
+            server.manager.close();
+        final long shutdown = (System.nanoTime() - shutdownStart) / 1000000;
+
+        final Verification verification = verify();
+        final long lost = staleLoads.sum() + verification.lost;
+
+        System.out.println();
+        System.out.println("Shutdown: " + shutdown + "ms");
+        System.out.println("Rows: " + verification.rows + ", missing or outdated: " + verification.lost + ", still claimed: " + verification.claimed);
+        System.out.println("Loads which read outdated data: " + staleLoads.sum());
+        System.out.println("Load failures: " + loadFailures.sum());
+        printMetrics();
+        System.out.println();
+        System.out.println("Lost saves: " + lost);
+
+        boolean passed = lost == 0 && loadFailures.sum() == 0 && verification.claimed == 0;
+        if (options.maxP99 > 0) for (PhaseReport phase : phases)
+            if (phase.percentile(.99) > options.maxP99) {
+                System.out.println(phase.name + " p99 time-to-loaded " + phase.percentile(.99) + "ms exceeds " + options.maxP99 + "ms");
+                passed = false;
+            }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    /**
+     * Starts loads, waits for all of them while sampling connection pools, then prints the phase report
+     */
+    private PhaseReport phase(String name, Supplier<List<CompletableFuture<Void>>> loads) {
+        final PhaseReport report = new PhaseReport(name);
+        final PoolSampler sampler = new PoolSampler();
+        final long start = System.nanoTime();
+        current = report;
+        CompletableFuture.allOf(loads.get().toArray(new CompletableFuture[0])).join();
+        report.duration = (System.nanoTime() - start) / 1000000;
+        sampler.stop();
+        report.print(sampler);
+        return report;
+    }
+
+    @SuppressWarnings("deprecation")
+    private CompletableFuture<Void> join(SimulatedPlayer player) {
+        final PhaseReport report = current;
+        final BenchDataManager manager = servers[player.server].manager;
+        final long start = System.nanoTime();
+        final BenchPlayerData data = manager.setup(player.player);
+        return manager.whenLoaded(player.uuid).handle((unused, throwable) -> {
+            if (throwable != null) {
+                loadFailures.increment();
+                return null;
+            }
+            report.timesToLoaded.add((System.nanoTime() - start) / 1000000);
+            if (data.getCoins() != player.expectedCoins) staleLoads.increment();
+
+            // Gameplay modifying data before the next save
+            player.expectedCoins++;
+            data.setCoins(player.expectedCoins);
+            player.data = data;
+            return null;
+        });
+    }
+
+    private void leave(SimulatedPlayer player) {
+        if (player.data == null) return;
+        servers[player.server].manager.unregisterSafely(player.data);
+        player.data = null;
+    }
+
+    /**
+     * Compares the rows of the database with the values players are expected to have
+     */
+    private Verification verify() throws SQLException {
+        final Map<UUID, Long> found = new HashMap<>();
+        int claimed = 0;
+        try (Connection connection = DriverManager.getConnection(EmbeddedDatabase.url(DATABASE), "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT `uuid`, `coins`, `is_saved` FROM `" + BenchPlayerData.TABLE + "`")) {
+            while (result.next()) {
+                found.put(UUID.fromString(result.getString("uuid")), result.getLong("coins"));
+                if (result.getInt("is_saved") == 0) claimed++;
+            }
+        }
+
+        int lost = 0;
+        for (SimulatedPlayer player : players) {
+            final @Nullable Long coins = found.get(player.uuid);
+            if (coins == null || coins < player.expectedCoins) lost++;
+        }
+        return new Verification(found.size(), lost, claimed);
+    }
+
+    private void printMetrics() {
+        final DataMetrics metrics = Headless.getMetrics();
+        metrics.getCounters().forEach((key, value) -> System.out.println(key + ": " + value));
+        metrics.getHistograms().forEach((key, histogram) -> {
+            if (key.name().equals(DataMetrics.RETRIES) || key.name().equals(DataMetrics.HANDOFF_WAIT))
+                System.out.println(key + ": p50 " + histogram.getPercentile(.5) + ", p99 " + histogram.getPercentile(.99) + ", max " + histogram.getMax());
+        });
+    }
+
+    private record Verification(int rows, int lost, int claimed) {
+    }
+
+    private static class SimulatedServer {
+        private final String name;
+        private final PluginBase plugin;
+        private final BenchSQLDataHandler handler;
+        private final BenchDataManager manager;
+
+        SimulatedServer(String name, Options options, LocalSaveNotifier notifier, @Nullable MemoryHandoffCache handoffCache) {
+            this.name = name;
+            this.plugin = Headless.plugin(name);
+            final SQLDataSource dataSource = EmbeddedDatabase.open(plugin, DATABASE, options.poolSize, options.latency, notifier);
+            this.handler = new BenchSQLDataHandler(dataSource);
+            handler.setHandoffCache(handoffCache);
+            this.manager = new BenchDataManager(plugin, handler);
+        }
+    }
+
+    private static class SimulatedPlayer {
+        private final Player player;
+        private final UUID uuid;
+        private volatile int server;
+        private volatile long expectedCoins;
+
+        @Nullable
+        private volatile BenchPlayerData data;
+
+        SimulatedPlayer(Player player, int server) {
+            this.player = player;
+            this.uuid = player.getUniqueId();
+            this.server = server;
+        }
+    }
+
+    private static class PhaseReport {
+        private final String name;
+        private final Queue<Long> timesToLoaded = new ConcurrentLinkedQueue<>();
+        private long duration;
+        private long[] sorted;
+
+        PhaseReport(String name) {
+            this.name = name;
+        }
+
+        long percentile(double percentile) {
+            if (sorted == null) sorted = timesToLoaded.stream().mapToLong(Long::longValue).sorted().toArray();
+            if (sorted.length == 0) return 0;
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percentile) - 1)];
+        }
+
+        void print(PoolSampler sampler) {
+            System.out.println();
+            System.out.println("== " + name + ": " + timesToLoaded.size() + " loads in " + duration + "ms");
+            System.out.println("Time-to-loaded: p50 " + percentile(.5) + "ms, p99 " + percentile(.99) + "ms, max " + percentile(1) + "ms");
+            sampler.print();
+        }
+    }
+
+    /**
+     * Reads the connection pool gauges of every server at a fixed rate
+     */
+    private class PoolSampler {
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        private final Map<String, Histogram> active = new LinkedHashMap<>(), pending = new LinkedHashMap<>();
+        private final Map<String, int[]> saturated = new LinkedHashMap<>();
+        private int samples;
+
+        PoolSampler() {
+            for (SimulatedServer server : servers) {
+                active.put(server.name, new Histogram());
+                pending.put(server.name, new Histogram());
+                saturated.put(server.name, new int[1]);
+            }
+            executor.scheduleAtFixedRate(this::sample, 0, 5, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void sample() {
+            final Map<String, Supplier<Number>> gauges = Headless.getMetrics().getGauges();
+            samples++;
+            for (SimulatedServer server : servers) {
+                final long activeConnections = read(gauges, "pool.active[" + server.name + "]");
+                active.get(server.name).record(activeConnections);
+                pending.get(server.name).record(read(gauges, "pool.pending[" + server.name + "]"));
+                if (activeConnections >= options.poolSize) saturated.get(server.name)[0]++;
+            }
+        }
+
+        private long read(Map<String, Supplier<Number>> gauges, String name) {
+            final @Nullable Supplier<Number> gauge = gauges.get(name);
+            try {
+                return gauge == null ? 0 : gauge.get().longValue();
+            } catch (RuntimeException exception) {
+                return 0;
+            }
+        }
+
+        void stop() {
+            executor.shutdownNow();
+        }
+
+        synchronized void print() {
+            for (SimulatedServer server : servers)
+                System.out.println("Pool " + server.name + ": saturated " + (samples == 0 ? 0 : 100 * saturated.get(server.name)[0] / samples) + "% of the time, max active "
+                        + active.get(server.name).getMax() + "/" + options.poolSize + ", max waiting threads " + pending.get(server.name).getMax()
+                        + ", mean waiting threads " + String.format("%.1f", pending.get(server.name).getMean()));
+        }
+    }
+
+    /**
+     * Simulation options, all passed as 'key=value'
+     *
+     * @param players            Amount of synthetic players
+     * @param servers            Amount of simulated servers
+     * @param latency            Delay in milliseconds added to every round trip, while holding the connection
+     * @param poolSize           Connections per server
+     * @param ioThreads          Threads of the shared data executor
+     * @param maxConcurrentLoads Loads running at the same time
+     * @param maxSyncTries       Tries before claiming data still being saved
+     * @param transferRounds     Amount of transfer waves
+     * @param transferRatio      Share of players transferring in every wave
+     * @param handoff            If servers share a handoff cache
+     * @param maxP99             Highest accepted p99 time-to-loaded in milliseconds, 0 for none
+     * @param seed               Seed used to generate players and pick transfers
+     */
+    public record Options(int players, int servers, long latency, int poolSize, int ioThreads, int maxConcurrentLoads, int maxSyncTries,
+                          int transferRounds, double transferRatio, boolean handoff, long maxP99, long seed) {
+
+        public static Options parse(String[] args) {
+            final Map<String, String> values = new HashMap<>();
+            for (String arg : args) {
+                final int split = arg.indexOf('=');
+                if (split < 0) throw new IllegalArgumentException("Expected 'key=value', found '" + arg + "'");
+                values.put(arg.substring(0, split).toLowerCase(), arg.substring(split + 1));
+            }
+
+            final Options options = new Options(
+                    Integer.parseInt(values.getOrDefault("players", "2000")),
+                    Math.max(1, Integer.parseInt(values.getOrDefault("servers", "2"))),
+                    Long.parseLong(values.getOrDefault("latency", "2")),
+                    Integer.parseInt(values.getOrDefault("pool-size", "10")),
+                    Integer.parseInt(values.getOrDefault("io-threads", "20")),
+                    Integer.parseInt(values.getOrDefault("max-concurrent-loads", "10")),
+                    Integer.parseInt(values.getOrDefault("max-sync-tries", "5")),
+                    Integer.parseInt(values.getOrDefault("transfer-rounds", "3")),
+                    Double.parseDouble(values.getOrDefault("transfer-ratio", "0.5")),
+                    Boolean.parseBoolean(values.getOrDefault("handoff", "true")),
+                    Long.parseLong(values.getOrDefault("max-p99", "0")),
+                    Long.parseLong(values.getOrDefault("seed", "42")));
+            for (String key : values.keySet())
+                if (!List.of("players", "servers", "latency", "pool-size", "io-threads", "max-concurrent-loads", "max-sync-tries",
+                        "transfer-rounds", "transfer-ratio", "handoff", "max-p99", "seed").contains(key))
+                    throw new IllegalArgumentException("Unknown option '" + key + "'");
+            return options;
+        }
+    }
+}
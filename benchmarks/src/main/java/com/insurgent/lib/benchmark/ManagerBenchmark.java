@@ -0,0 +1,123 @@
+package com.insurgent.lib.benchmark;
+
+import cn.nukkit.Player;
+import cn.nukkit.plugin.PluginBase;
+import com.insurgent.lib.api.player.RPGPlayerData;
+import com.insurgent.lib.benchmark.data.BenchDataManager;
+import com.insurgent.lib.benchmark.data.BenchPlayerData;
+import com.insurgent.lib.benchmark.data.MemoryDataHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Data manager lookups and player data setup and unregistration, with
+ * several threads accessing the same manager. Data is stored in memory
+ * so that only the manager, the load scheduler, the load coordinator
+ * and the save queue are measured.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ManagerBenchmark {
+
+    @Param({"1000", "10000"})
+    public int players;
+
+    private BenchDataManager manager;
+    private PluginBase plugin;
+    private UUID[] loaded;
+
+    @Setup
+    @SuppressWarnings("deprecation")
+    public void setup() {
+        Headless.bootstrap();
+        plugin = Headless.plugin("ManagerBenchmark");
+        manager = new BenchDataManager(plugin, new MemoryDataHandler());
+
+        loaded = new UUID[players];
+        for (int i = 0; i < players; i++) {
+            final Player player = Headless.player(UUID.randomUUID());
+            RPGPlayerData.setup(player);
+            manager.setup(player);
+            loaded[i] = player.getUniqueId();
+        }
+        for (UUID uuid : loaded)
+            manager.whenLoaded(uuid).join();
+    }
+
+    @TearDown
+    public void tearDown() {
+        manager.close();
+        Headless.delete(plugin.getDataFolder());
+    }
+
+    /**
+     * Players joining and leaving, each thread has its own players
+     */
+    @State(Scope.Thread)
+    public static class Churn {
+        private final List<Player> players = new ArrayList<>();
+        private final UUID[] missing = new UUID[64];
+        private int next, cursor;
+
+        @Setup
+        public void setup() {
+            for (int i = 0; i < 64; i++) {
+                final Player player = Headless.player(UUID.randomUUID());
+                RPGPlayerData.setup(player);
+                players.add(player);
+                missing[i] = UUID.randomUUID();
+            }
+        }
+
+        Player nextPlayer() {
+            return players.get(next++ & 63);
+        }
+
+        UUID nextMissing() {
+            return missing[nextIndex(missing.length)];
+        }
+
+        int nextIndex(int bound) {
+            cursor = cursor + 0x9E3779B9;
+            return (cursor >>> 1) % bound;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public BenchPlayerData get(Churn churn) {
+        return manager.get(loaded[churn.nextIndex(loaded.length)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public BenchPlayerData getOrNullMissing(Churn churn) {
+        return manager.getOrNull(churn.nextMissing());
+    }
+
+    /**
+     * Full lifecycle of a player data: setup, load, modification,
+     * unregistration and save.
+     */
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @SuppressWarnings("deprecation")
+    public void setupAndUnregister(Churn churn) {
+        final Player player = churn.nextPlayer();
+        final BenchPlayerData data = manager.setup(player);
+        manager.whenLoaded(player.getUniqueId()).join();
+        data.setCoins(data.getCoins() + 1);
+        manager.unregisterSafely(data);
+        manager.getSaveQueue().whenIdle(player.getUniqueId()).join();
+    }
+}
@@ -0,0 +1,105 @@
+package com.insurgent.lib.benchmark;
+
+import cn.nukkit.Player;
+import cn.nukkit.plugin.PluginBase;
+import com.insurgent.lib.api.player.RPGPlayerData;
+import com.insurgent.lib.benchmark.data.BenchDataManager;
+import com.insurgent.lib.benchmark.data.BenchPlayerData;
+import com.insurgent.lib.benchmark.data.MemoryDataHandler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup throughput of the data manager while other players keep logging
+ * in and off. Lookups stand for the main thread and plugins reading player
+ * data, while load callbacks and unregistrations modify the registry.
+ * <p>
+ * Results are reported per method: 'lookup' is the throughput of the
+ * reading threads, 'loadUnload' the throughput of the writing thread.
+ */
+@State(Scope.Group)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ManagerLookupBenchmark {
+
+    @Param({"1000", "10000"})
+    public int players;
+
+    private BenchDataManager manager;
+    private PluginBase plugin;
+    private UUID[] loaded;
+
+    @Setup
+    @SuppressWarnings("deprecation")
+    public void setup() {
+        Headless.bootstrap();
+        plugin = Headless.plugin("ManagerLookupBenchmark");
+        manager = new BenchDataManager(plugin, new MemoryDataHandler());
+
+        loaded = new UUID[players];
+        for (int i = 0; i < players; i++) {
+            final Player player = Headless.player(UUID.randomUUID());
+            RPGPlayerData.setup(player);
+            manager.setup(player);
+            loaded[i] = player.getUniqueId();
+        }
+        for (UUID uuid : loaded)
+            manager.whenLoaded(uuid).join();
+    }
+
+    @TearDown
+    public void tearDown() {
+        manager.close();
+        Headless.delete(plugin.getDataFolder());
+    }
+
+    /**
+     * Reads a player who stays online, and a player whose data is not loaded
+     */
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public void lookup(ManagerBenchmark.Churn churn, Blackhole blackhole) {
+        blackhole.consume(manager.get(loaded[churn.nextIndex(loaded.length)]));
+        blackhole.consume(manager.getOrNull(churn.nextMissing()));
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    @SuppressWarnings("deprecation")
+    public void loadUnload(ManagerBenchmark.Churn churn) {
+        final Player player = churn.nextPlayer();
+        final BenchPlayerData data = manager.setup(player);
+        manager.whenLoaded(player.getUniqueId()).join();
+        manager.unregisterSafely(data);
+        manager.getSaveQueue().whenIdle(player.getUniqueId()).join();
+    }
+
+    /**
+     * Iterates over loaded data as autosaves do, while players log in and off
+     */
+    @Benchmark
+    @Group("iterate")
+    @GroupThreads(1)
+    public int saveAllScan() {
+        int dirty = 0;
+        for (BenchPlayerData data : manager.getLoaded())
+            if (data.isDirty()) dirty++;
+        return dirty;
+    }
+
+    @Benchmark
+    @Group("iterate")
+    @GroupThreads(1)
+    @SuppressWarnings("deprecation")
+    public void iterateLoadUnload(ManagerBenchmark.Churn churn) {
+        loadUnload(churn);
+    }
+}
@@ -0,0 +1,95 @@
+package com.insurgent.lib.benchmark;
+
+import com.insurgent.lib.api.player.DataKey;
+import com.insurgent.lib.api.player.RPGPlayerData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups in the player data registry and external data accessors,
+ * with typed keys, primitive accessors and deprecated string keys.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlayerDataBenchmark {
+    private static final DataKey<Integer> MANA = DataKey.register("bench_mana", Integer.class);
+    private static final DataKey<String> CLASS = DataKey.register("bench_class", String.class);
+
+    @Param({"1000", "10000"})
+    public int players;
+
+    private UUID[] registered, missing;
+
+    @Setup
+    @SuppressWarnings("deprecation")
+    public void setup() {
+        registered = new UUID[players];
+        missing = new UUID[players];
+        for (int i = 0; i < players; i++) {
+            final RPGPlayerData playerData = RPGPlayerData.setup(Headless.player(UUID.randomUUID()));
+            playerData.setExternalData(MANA, i);
+            playerData.setExternalData(CLASS, "Mage");
+            playerData.setExternalData("bench_legacy", i);
+            registered[i] = playerData.getUniqueId();
+            missing[i] = UUID.randomUUID();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int cursor;
+
+        int next(int bound) {
+            cursor = cursor + 0x9E3779B9;
+            return (cursor >>> 1) % bound;
+        }
+    }
+
+    private RPGPlayerData next(Cursor cursor) {
+        return RPGPlayerData.get(registered[cursor.next(registered.length)]);
+    }
+
+    @Benchmark
+    public RPGPlayerData get(Cursor cursor) {
+        return next(cursor);
+    }
+
+    @Benchmark
+    public RPGPlayerData getOrNullMissing(Cursor cursor) {
+        return RPGPlayerData.getOrNull(missing[cursor.next(missing.length)]);
+    }
+
+    @Benchmark
+    public String getTyped(Cursor cursor) {
+        return next(cursor).getExternalData(CLASS);
+    }
+
+    @Benchmark
+    public int getInt(Cursor cursor) {
+        return next(cursor).getExternalData().getInt(MANA, 0);
+    }
+
+    @Benchmark
+    public void setInt(Cursor cursor) {
+        next(cursor).getExternalData().setInt(MANA, cursor.cursor);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public Object getLegacy(Cursor cursor) {
+        return next(cursor).getExternalData("bench_legacy", Integer.class);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public void setLegacy(Cursor cursor) {
+        next(cursor).setExternalData("bench_legacy", cursor.cursor);
+    }
+}
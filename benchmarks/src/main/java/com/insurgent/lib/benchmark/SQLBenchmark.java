@@ -0,0 +1,118 @@
+package com.insurgent.lib.benchmark;
+
+import cn.nukkit.plugin.PluginBase;
+import com.insurgent.lib.api.player.RPGPlayerData;
+import com.insurgent.lib.benchmark.data.BenchPlayerData;
+import com.insurgent.lib.benchmark.data.BenchSQLDataHandler;
+import com.insurgent.lib.benchmark.data.EmbeddedDatabase;
+import com.insurgent.lib.database.handoff.LocalSaveNotifier;
+import com.insurgent.lib.database.sql.SQLDataSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading, claiming and saving player data through the SQL handler on
+ * an embedded database. The embedded database answers much faster than
+ * a remote one, use 'latency' to add a delay to every round trip.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SQLBenchmark {
+
+    /**
+     * Delay in milliseconds added to every round trip
+     */
+    @Param({"0"})
+    public long latency;
+
+    @Param({"10"})
+    public int poolSize;
+
+    private PluginBase plugin;
+    private BenchSQLDataHandler handler;
+
+    @Setup
+    public void setup() {
+        Headless.bootstrap();
+        plugin = Headless.plugin("SQLBenchmark");
+        final SQLDataSource dataSource = EmbeddedDatabase.open(plugin, "sqlbenchmark", poolSize, latency, new LocalSaveNotifier());
+        handler = new BenchSQLDataHandler(dataSource);
+        handler.setup();
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.getDataSource().execute(connection -> {
+            try (var statement = connection.createStatement()) {
+                statement.executeUpdate("DROP TABLE `" + BenchPlayerData.TABLE + "`");
+            } catch (Exception exception) {
+                exception.printStackTrace();
+            }
+        });
+        handler.close();
+        Headless.delete(plugin.getDataFolder());
+    }
+
+    /**
+     * Players of a thread, their row is created once so that
+     * loads always claim and read an existing row
+     */
+    @State(Scope.Thread)
+    public static class Players {
+        private final List<BenchPlayerData> data = new ArrayList<>();
+        private int next;
+
+        @Setup
+        public void setup(SQLBenchmark benchmark) {
+            for (int i = 0; i < 128; i++) {
+                final BenchPlayerData holder = new BenchPlayerData(RPGPlayerData.setup(Headless.player(UUID.randomUUID())));
+                holder.fill(i);
+                benchmark.handler.saveData(holder, false);
+                data.add(holder);
+            }
+        }
+
+        BenchPlayerData next() {
+            return data.get(next++ & 127);
+        }
+
+        List<BenchPlayerData> all() {
+            return data;
+        }
+    }
+
+    /**
+     * Claims the row, reads it, then releases it so that it can be claimed again
+     */
+    @Benchmark
+    public BenchPlayerData loadAndRelease(Players players) {
+        final BenchPlayerData data = players.next();
+        handler.loadData(data).join();
+        handler.releaseData(data);
+        return data;
+    }
+
+    @Benchmark
+    public void save(Players players) {
+        final BenchPlayerData data = players.next();
+        data.setCoins(data.getCoins() + 1);
+        handler.saveData(data, false);
+    }
+
+    /**
+     * Autosave of every player of the thread, in JDBC batches
+     */
+    @Benchmark
+    public int saveAll(Players players) {
+        return handler.saveAll(players.all(), true).size();
+    }
+}
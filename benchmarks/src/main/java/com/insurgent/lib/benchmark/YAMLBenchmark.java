@@ -0,0 +1,75 @@
+package com.insurgent.lib.benchmark;
+
+import cn.nukkit.plugin.PluginBase;
+import com.insurgent.lib.api.player.RPGPlayerData;
+import com.insurgent.lib.benchmark.data.BenchPlayerData;
+import com.insurgent.lib.benchmark.data.BenchYAMLDataHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and loading player files through the YAML handler,
+ * from several threads writing files of different players.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class YAMLBenchmark {
+    private PluginBase plugin;
+    private BenchYAMLDataHandler handler;
+
+    @Setup
+    public void setup() {
+        Headless.bootstrap();
+        plugin = Headless.plugin("YAMLBenchmark");
+        handler = new BenchYAMLDataHandler(plugin);
+        handler.setup();
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.close();
+        Headless.delete(plugin.getDataFolder());
+    }
+
+    /**
+     * Players saved and loaded by a thread, their file is written once
+     * so that loads always read an existing file
+     */
+    @State(Scope.Thread)
+    public static class Players {
+        private final BenchPlayerData[] data = new BenchPlayerData[64];
+        private int next;
+
+        @Setup
+        public void setup(YAMLBenchmark benchmark) {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = new BenchPlayerData(RPGPlayerData.setup(Headless.player(UUID.randomUUID())));
+                data[i].fill(i);
+                benchmark.handler.saveData(data[i], false);
+            }
+        }
+
+        BenchPlayerData next() {
+            return data[next++ & 63];
+        }
+    }
+
+    @Benchmark
+    public void save(Players players) {
+        handler.saveData(players.next(), false);
+    }
+
+    @Benchmark
+    public BenchPlayerData load(Players players) {
+        final BenchPlayerData data = players.next();
+        handler.loadData(data).join();
+        return data;
+    }
+}
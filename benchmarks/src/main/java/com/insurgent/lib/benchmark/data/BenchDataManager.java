@@ -0,0 +1,20 @@
+package com.insurgent.lib.benchmark.data;
+
+import cn.nukkit.plugin.Plugin;
+import com.insurgent.lib.api.player.RPGPlayerData;
+import com.insurgent.lib.database.DefaultOfflineDataHolder;
+import com.insurgent.lib.database.SynchronizedDataHandler;
+import com.insurgent.lib.database.SynchronizedDataManager;
+import org.jetbrains.annotations.NotNull;
+
+public class BenchDataManager extends SynchronizedDataManager<BenchPlayerData, DefaultOfflineDataHolder> {
+
+    public BenchDataManager(Plugin owning, @NotNull SynchronizedDataHandler<BenchPlayerData, DefaultOfflineDataHolder> dataHandler) {
+        super(owning, dataHandler);
+    }
+
+    @Override
+    public BenchPlayerData newPlayerData(@NotNull RPGPlayerData playerData) {
+        return new BenchPlayerData(playerData);
+    }
+}
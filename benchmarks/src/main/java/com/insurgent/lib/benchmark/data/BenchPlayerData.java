@@ -0,0 +1,95 @@
+package com.insurgent.lib.benchmark.data;
+
+import com.insurgent.lib.api.player.RPGPlayerData;
+import com.insurgent.lib.database.SynchronizedDataHolder;
+import com.insurgent.lib.database.codec.DataSchema;
+import com.insurgent.lib.database.codec.FieldType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Player data shaped like the data of a typical dependent plugin,
+ * with a few numbers, a string and a short list.
+ */
+public class BenchPlayerData extends SynchronizedDataHolder {
+    private int level;
+    private long coins;
+    private String profession;
+    private List<String> friends = new ArrayList<>();
+
+    public static final String TABLE = "bench_playerdata";
+
+    public static final DataSchema<BenchPlayerData> SCHEMA = new DataSchema<BenchPlayerData>(1)
+            .add("level", FieldType.INT, BenchPlayerData::getLevel, BenchPlayerData::setLevel, 1)
+            .add("coins", FieldType.LONG, BenchPlayerData::getCoins, BenchPlayerData::setCoins, 0L)
+            .add("profession", FieldType.STRING, BenchPlayerData::getProfession, BenchPlayerData::setProfession, null)
+            .add("friends", FieldType.STRING_LIST, BenchPlayerData::getFriends, BenchPlayerData::setFriends, List.of());
+
+    /**
+     * Statement creating the table read by {@link #SCHEMA}
+     */
+    public static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS `" + TABLE + "` (`uuid` VARCHAR(36) NOT NULL, `is_saved` TINYINT NOT NULL DEFAULT 1, "
+            + "`level` INT, `coins` BIGINT, `profession` VARCHAR(64), `friends` TEXT, PRIMARY KEY (`uuid`));";
+
+    public BenchPlayerData(RPGPlayerData playerData) {
+        super(playerData);
+    }
+
+    @Override
+    public boolean tracksChanges() {
+        return true;
+    }
+
+    /**
+     * Fills the data with values which are not the defaults,
+     * so that codecs have every field to write.
+     *
+     * @param seed Changes the values
+     */
+    public void fill(int seed) {
+        setLevel(1 + seed % 100);
+        setCoins(seed * 1000L);
+        setProfession(seed % 2 == 0 ? "Blacksmith" : "Alchemist");
+        final List<String> friends = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            friends.add("Friend-" + (seed + i));
+        setFriends(friends);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+        markDirty("level");
+    }
+
+    public long getCoins() {
+        return coins;
+    }
+
+    public void setCoins(long coins) {
+        this.coins = coins;
+        markDirty("coins");
+    }
+
+    public String getProfession() {
+        return profession;
+    }
+
+    public void setProfession(String profession) {
+        this.profession = profession;
+        markDirty("profession");
+    }
+
+    public List<String> getFriends() {
+        return friends;
+    }
+
+    public void setFriends(List<String> friends) {
+        this.friends = friends;
+        markDirty("friends");
+    }
+}
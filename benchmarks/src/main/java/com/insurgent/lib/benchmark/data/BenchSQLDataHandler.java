@@ -0,0 +1,80 @@
+package com.insurgent.lib.benchmark.data;
+
+import cn.nukkit.utils.LogLevel;
+import com.insurgent.lib.database.DefaultOfflineDataHolder;
+import com.insurgent.lib.database.codec.SQLCodec;
+import com.insurgent.lib.database.sql.SQLDataSource;
+import com.insurgent.lib.database.sql.SQLSynchronizedDataHandler;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BenchSQLDataHandler extends SQLSynchronizedDataHandler<BenchPlayerData, DefaultOfflineDataHolder, BenchSQLDataSynchronizer> {
+    private final SQLCodec<BenchPlayerData> codec = new SQLCodec<>(BenchPlayerData.SCHEMA, BenchPlayerData.TABLE, "uuid");
+
+    /**
+     * Servers of a same network share snapshots and notifications,
+     * whatever the name of the plugin owning their data source.
+     */
+    public static final String NAMESPACE = "bench";
+
+    public BenchSQLDataHandler(SQLDataSource dataSource) {
+        super(dataSource);
+    }
+
+    @Override
+    public void setup() {
+        getDataSource().execute(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(BenchPlayerData.CREATE_TABLE);
+            } catch (SQLException exception) {
+                getDataSource().getPlugin().getLogger().log(LogLevel.WARNING, "Could not create table:");
+                exception.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public SQLCodec<BenchPlayerData> getCodec() {
+        return codec;
+    }
+
+    @Override
+    public String getHandoffNamespace() {
+        return NAMESPACE;
+    }
+
+    @Override
+    public void saveData(BenchPlayerData playerData, boolean autosave) {
+        final AtomicReference<Exception> failure = new AtomicReference<>(new SQLException("Could not open connection"));
+        getDataSource().execute(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(codec.getUpsertStatement())) {
+                codec.bind(statement, playerData, !autosave);
+                statement.executeUpdate();
+                failure.set(null);
+            } catch (SQLException exception) {
+                failure.set(exception);
+            }
+        });
+        if (failure.get() != null)
+            throw new IllegalStateException("Could not save data of '" + playerData.getUniqueId() + "'", failure.get());
+    }
+
+    @Override
+    public BenchSQLDataSynchronizer newDataSynchronizer(BenchPlayerData playerData) {
+        return new BenchSQLDataSynchronizer(getDataSource(), playerData, codec);
+    }
+
+    @Override
+    public DefaultOfflineDataHolder getOffline(UUID uuid) {
+        return new DefaultOfflineDataHolder(uuid);
+    }
+
+    @Override
+    public void close() {
+        getDataSource().close();
+    }
+}
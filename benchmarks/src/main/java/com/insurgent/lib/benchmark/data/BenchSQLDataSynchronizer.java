@@ -0,0 +1,33 @@
+package com.insurgent.lib.benchmark.data;
+
+import com.insurgent.lib.database.codec.SQLCodec;
+import com.insurgent.lib.database.sql.SQLDataSource;
+import com.insurgent.lib.database.sql.SQLDataSynchronizer;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+public class BenchSQLDataSynchronizer extends SQLDataSynchronizer<BenchPlayerData> {
+    private final SQLCodec<BenchPlayerData> codec;
+
+    public BenchSQLDataSynchronizer(SQLDataSource dataSource, BenchPlayerData data, SQLCodec<BenchPlayerData> codec) {
+        super(BenchPlayerData.TABLE, "uuid", dataSource, data);
+        this.codec = codec;
+    }
+
+    @Override
+    public List<String> getSelectedColumns() {
+        return codec.getColumns();
+    }
+
+    @Override
+    public void loadData(ResultSet result) throws SQLException {
+        codec.decode(getData(), result);
+    }
+
+    @Override
+    public void loadEmptyData() {
+        codec.getSchema().loadDefaults(getData());
+    }
+}
@@ -0,0 +1,34 @@
+package com.insurgent.lib.benchmark.data;
+
+import cn.nukkit.plugin.Plugin;
+import com.insurgent.lib.database.DefaultOfflineDataHolder;
+import com.insurgent.lib.database.codec.YAMLCodec;
+import com.insurgent.lib.database.yaml.YAMLSynchronizedDataHandler;
+
+import java.util.UUID;
+
+public class BenchYAMLDataHandler extends YAMLSynchronizedDataHandler<BenchPlayerData, DefaultOfflineDataHolder> {
+    private final YAMLCodec<BenchPlayerData> codec = new YAMLCodec<>(BenchPlayerData.SCHEMA);
+
+    public BenchYAMLDataHandler(Plugin owning) {
+        super(owning);
+    }
+
+    @Override
+    public YAMLCodec<BenchPlayerData> getCodec() {
+        return codec;
+    }
+
+    @Override
+    public void setup() {
+    }
+
+    @Override
+    public DefaultOfflineDataHolder getOffline(UUID uuid) {
+        return new DefaultOfflineDataHolder(uuid);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,56 @@
+package com.insurgent.lib.benchmark.data;
+
+import cn.nukkit.plugin.PluginBase;
+import com.insurgent.lib.database.handoff.SaveNotifier;
+import com.insurgent.lib.database.sql.SQLDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import org.h2.jdbcx.JdbcDataSource;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * In-memory H2 database running in MySQL mode, which accepts the
+ * statements of the SQL handlers. Data sources created with the same
+ * name share the same database, as servers of a network would.
+ */
+public class EmbeddedDatabase {
+
+    /**
+     * @param plugin       Plugin owning the data source
+     * @param name         Database name
+     * @param poolSize     Maximum amount of connections
+     * @param latency      Delay in milliseconds added to every round trip, see {@link LatencyDataSource}
+     * @param saveNotifier Channel shared by the data sources of a same database. Notifications
+     *                     go through the database by default, using MySQL only statements
+     * @return Data source of that database
+     */
+    @NotNull
+    public static SQLDataSource open(@NotNull PluginBase plugin, @NotNull String name, int poolSize, long latency, @NotNull SaveNotifier saveNotifier) {
+        final JdbcDataSource database = new JdbcDataSource();
+        database.setURL(url(name));
+        database.setUser("sa");
+        database.setPassword("");
+
+        final HikariConfig hikari = new HikariConfig();
+        hikari.setPoolName("bench-" + plugin.getName());
+        hikari.setDataSource(new LatencyDataSource(database, latency));
+        hikari.setMaximumPoolSize(poolSize);
+        hikari.setConnectionTimeout(30000);
+
+        final SQLDataSource dataSource = new SQLDataSource(plugin, hikari);
+        dataSource.setSaveNotifier(saveNotifier);
+        return dataSource;
+    }
+
+    /**
+     * The database is kept until the process exits, even once every
+     * connection is closed, so it can still be read after data sources
+     * are closed.
+     *
+     * @param name Database name
+     * @return JDBC url of that database
+     */
+    @NotNull
+    public static String url(@NotNull String name) {
+        return "jdbc:h2:mem:" + name + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1";
+    }
+}
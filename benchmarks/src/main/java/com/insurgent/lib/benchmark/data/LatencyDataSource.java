@@ -0,0 +1,120 @@
+package com.insurgent.lib.benchmark.data;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+/**
+ * Simulates a distant database by waiting before every round trip: statement
+ * executions, commits and rollbacks. The connection is held while waiting, as
+ * it would be while waiting for a remote database, so the connection pool
+ * saturates like it would in production.
+ */
+public class LatencyDataSource implements DataSource {
+    private final DataSource delegate;
+    private final long latency;
+
+    /**
+     * @param delegate Data source actually connecting to the database
+     * @param latency  Delay in milliseconds added to every round trip
+     */
+    public LatencyDataSource(@NotNull DataSource delegate, long latency) {
+        this.delegate = delegate;
+        this.latency = latency;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return delay(delegate.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return delay(delegate.getConnection(username, password));
+    }
+
+    private Connection delay(Connection connection) {
+        if (latency <= 0) return connection;
+
+        return proxy(Connection.class, connection, (connectionProxy, method, args) -> {
+            final String name = method.getName();
+            if (name.equals("commit") || name.equals("rollback")) roundTrip();
+            final Object result = invoke(connection, method, args);
+
+            // Statements created by that connection wait before executing
+            if (result instanceof Statement statement && method.getReturnType().isInterface())
+                return proxy(method.getReturnType(), statement, (statementProxy, statementMethod, statementArgs) -> {
+                    if (statementMethod.getName().startsWith("execute")) roundTrip();
+                    return invoke(statement, statementMethod, statementArgs);
+                });
+            return result;
+        });
+    }
+
+    private void roundTrip() throws SQLException {
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while simulating latency", exception);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<?> type, Object target, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(LatencyDataSource.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException exception) {
+            throw exception.getCause();
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return delegate.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        delegate.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delegate.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delegate.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> type) throws SQLException {
+        return type.isInstance(this) ? type.cast(this) : delegate.unwrap(type);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> type) throws SQLException {
+        return type.isInstance(this) || delegate.isWrapperFor(type);
+    }
+}
@@ -0,0 +1,63 @@
+package com.insurgent.lib.benchmark.data;
+
+import com.insurgent.lib.WyndoriaLib;
+import com.insurgent.lib.database.DefaultOfflineDataHolder;
+import com.insurgent.lib.database.SynchronizedDataHandler;
+import com.insurgent.lib.database.codec.BinaryCodec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps encoded player data in memory, so that benchmarks
+ * of the data manager do not measure any storage.
+ */
+public class MemoryDataHandler implements SynchronizedDataHandler<BenchPlayerData, DefaultOfflineDataHolder> {
+    private final BinaryCodec<BenchPlayerData> codec = new BinaryCodec<>(BenchPlayerData.SCHEMA);
+    private final Map<UUID, byte[]> stored = new ConcurrentHashMap<>();
+
+    @Override
+    public String getBackend() {
+        return "memory";
+    }
+
+    @Override
+    public void setup() {
+    }
+
+    @Override
+    public void saveData(BenchPlayerData playerData, boolean autosave) {
+        try {
+            stored.put(playerData.getUniqueId(), codec.encode(playerData));
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> loadData(BenchPlayerData playerData) {
+        return CompletableFuture.runAsync(() -> {
+            final byte[] content = stored.get(playerData.getUniqueId());
+            try {
+                if (content != null) codec.decode(playerData, content);
+                else BenchPlayerData.SCHEMA.loadDefaults(playerData);
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }, WyndoriaLib.instance.getDataExecutor());
+    }
+
+    @Override
+    public DefaultOfflineDataHolder getOffline(UUID uuid) {
+        return new DefaultOfflineDataHolder(uuid);
+    }
+
+    @Override
+    public void close() {
+        stored.clear();
+    }
+}
@@ -1,19 +1,19 @@
 package com.insurgent.lib;
 
 import cn.nukkit.plugin.PluginBase;
-import cn.nukkit.utils.LogLevel;
 import com.dfsek.terra.lib.commons.lang3.Validate;
+import com.insurgent.lib.trace.Tracer;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Supplier;
 
 public class UtilityMethods {
 
-    private static final Map<String, String> DEBUG_COLOR_PREFIX = new HashMap<>();
-
     public static void loadDefaultFil(String path, String name) {
         final String newPath = path.isEmpty() ? "" : "/" + path;
         final File folder = new File(WyndoriaLib.instance.getDataFolder() + newPath);
@@ -27,15 +27,40 @@ public class UtilityMethods {
         }
     }
 
-    static {
-        DEBUG_COLOR_PREFIX.put("WyndoriaLib", "§a");
+    /**
+     * Writes a file by first writing a temporary file, then replacing
+     * the target file. The target file is therefore never left half-written
+     * if the server crashes while writing.
+     *
+     * @param file    File to write
+     * @param content New file content
+     */
+    public static void writeAtomically(File file, byte[] content) throws IOException {
+        final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            output.write(content);
+            output.getFD().sync();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException exception) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
+    /**
+     * Prefer {@link #debug(PluginBase, String, Supplier)} when the
+     * message is not a constant, so that it is only built in debug mode.
+     *
+     * @see Tracer
+     */
     public static void debug(PluginBase plugin, String prefix, String message) {
         Validate.notNull(plugin, "Plugin cannot be null");
         Validate.notNull(message, "Message cannot be null");
-        String colorPrefix = DEBUG_COLOR_PREFIX.getOrDefault(plugin.getName(), "");
-        if ((WyndoriaLib.instance.getConfigManager()).debugMode)
-            plugin.getLogger().log(LogLevel.INFO, colorPrefix + "[DEBUG" + ((prefix == null) ? "" : (": " + prefix)) + "] " + message);
+        if (Tracer.isEnabled()) Tracer.debug(plugin, prefix, () -> message);
+    }
+
+    public static void debug(PluginBase plugin, String prefix, Supplier<String> message) {
+        Tracer.debug(plugin, prefix, message);
     }
 }
@@ -1,9 +1,19 @@
 package com.insurgent.lib;
 
 import cn.nukkit.Server;
+import cn.nukkit.command.Command;
+import cn.nukkit.command.CommandSender;
 import cn.nukkit.plugin.PluginBase;
+import cn.nukkit.utils.LogLevel;
 import com.insurgent.lib.api.player.RPGPlayerData;
+import com.insurgent.lib.command.MetricsCommand;
+import com.insurgent.lib.database.AutosaveScheduler;
+import com.insurgent.lib.database.DataExecutor;
+import com.insurgent.lib.database.LoadCoordinator;
+import com.insurgent.lib.database.LoadScheduler;
+import com.insurgent.lib.database.SaveQueue;
 import com.insurgent.lib.manager.ConfigManager;
+import com.insurgent.lib.metrics.DataMetrics;
 
 import java.awt.*;
 import java.util.ArrayList;
@@ -12,6 +22,11 @@ import java.util.Arrays;
 public class WyndoriaLib extends PluginBase {
     public static WyndoriaLib instance;
     private final ConfigManager configManager = new ConfigManager();
+    private final LoadCoordinator loadCoordinator = new LoadCoordinator();
+    private final AutosaveScheduler autosaveScheduler = new AutosaveScheduler(this);
+    private final DataMetrics metrics = new DataMetrics();
+    private DataExecutor dataExecutor;
+    private LoadScheduler loadScheduler;
 
     @Override
     public void onLoad() {
@@ -27,16 +42,68 @@ public class WyndoriaLib extends PluginBase {
         // load player data of online player
         Server.getInstance().getOnlinePlayers().values().forEach(RPGPlayerData::setup);
         this.configManager.reload();
+        this.dataExecutor = new DataExecutor(configManager.ioVirtualThreads, configManager.ioThreads, configManager.ioMaxPending);
+        this.loadScheduler = new LoadScheduler(configManager.maxConcurrentLoads);
+
+        // Unload data of offline players regularly
+        RPGPlayerData.setMaxCacheSize(configManager.playerCacheSize);
+        final int sweepPeriod = configManager.playerCacheSweepPeriod * 20;
+        getServer().getScheduler().scheduleDelayedRepeatingTask(this, RPGPlayerData::flushOfflinePlayerData, sweepPeriod, sweepPeriod, true);
+
+        setupAutosave();
+        setupMetrics();
+    }
+
+    private void setupMetrics() {
+        metrics.registerGauge("executor.pending", dataExecutor::getPending);
+        metrics.registerGauge("executor.rejected", dataExecutor::getRejected);
+        metrics.registerGauge("load.queued", loadScheduler::getQueued);
+        metrics.registerGauge("load.running", loadScheduler::getRunning);
+        metrics.registerGauge("load.cancelled", loadScheduler::getCancelled);
+        metrics.registerGauge("save.pending", SaveQueue::getTotalPending);
+        if (configManager.metricsJmx) try {
+            metrics.registerMBean();
+        } catch (Exception exception) {
+            getLogger().log(LogLevel.WARNING, "Could not register metrics MBean:");
+            exception.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length > 0 && args[0].equalsIgnoreCase("metrics")) return MetricsCommand.execute(sender, args);
+        return false;
+    }
+
+    private void setupAutosave() {
+        autosaveScheduler.configure(configManager.autosaveInterval, configManager.autosaveShards, configManager.autosaveMaxLatency);
+        if (configManager.autosaveEnabled) autosaveScheduler.start();
+        else autosaveScheduler.stop();
     }
 
     @Override
     public void onDisable() {
+        autosaveScheduler.stop();
+        try {
+            metrics.unregisterMBean();
+        } catch (Exception ignored) {
+            // Not registered
+        }
 
+        // Data managers drain their queue when closed, this waits for managers which were not closed
+        final long timeout = configManager.shutdownSaveTimeout;
+        if (!SaveQueue.drainAll(timeout))
+            getLogger().warning(SaveQueue.getTotalPending() + " player data save(s) did not complete in time and may be lost");
+        if (dataExecutor != null && !dataExecutor.shutdown(timeout))
+            getLogger().warning("Some data operations did not complete in time");
     }
 
     public void reload() {
         reloadConfig();
         this.configManager.reload();
+        RPGPlayerData.setMaxCacheSize(configManager.playerCacheSize);
+        loadScheduler.setMaxConcurrent(configManager.maxConcurrentLoads);
+        setupAutosave();
     }
 
     public static WyndoriaLib getInstance() {
@@ -47,4 +114,24 @@ public class WyndoriaLib extends PluginBase {
         return configManager;
     }
 
+    public DataExecutor getDataExecutor() {
+        return dataExecutor;
+    }
+
+    public LoadScheduler getLoadScheduler() {
+        return loadScheduler;
+    }
+
+    public DataMetrics getMetrics() {
+        return metrics;
+    }
+
+    public AutosaveScheduler getAutosaveScheduler() {
+        return autosaveScheduler;
+    }
+
+    public LoadCoordinator getLoadCoordinator() {
+        return loadCoordinator;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+package com.insurgent.lib.api.player;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Key used to store external data inside of {@link RPGPlayerData}. Keys
+ * should be registered once, typically when a plugin enables, and then
+ * kept in a static field. Each key gets its own slot in the player data
+ * store so that lookups do not require hashing strings.
+ * <p>
+ * Integer and double keys are stored without boxing, see
+ * {@link ExternalDataStore#getInt(DataKey, int)} and
+ * {@link ExternalDataStore#getDouble(DataKey, double)}.
+ *
+ * @param <T> Type of stored values
+ */
+public final class DataKey<T> {
+    private final String name;
+    private final Class<T> type;
+    private final Kind kind;
+    private final int index;
+
+    private static final Map<String, DataKey<?>> REGISTERED = new ConcurrentHashMap<>();
+    private static int counter;
+
+    private DataKey(String name, Class<T> type, int index) {
+        this.name = name;
+        this.type = type;
+        this.kind = type == Integer.class ? Kind.INT : type == Double.class ? Kind.DOUBLE : Kind.OBJECT;
+        this.index = index;
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    public Class<T> getType() {
+        return type;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return Slot of this key inside of player data stores
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Registers a new key, or returns the key which was already
+     * registered with that name if it has the same type.
+     *
+     * @param name Unique key name, for instance 'mmocore_mana'
+     * @param type Type of stored values
+     * @return Registered key
+     * @throws IllegalArgumentException If a key with the same name but another type exists
+     */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public static <T> DataKey<T> register(@NotNull String name, @NotNull Class<T> type) {
+        Objects.requireNonNull(name, "Name cannot be null");
+        Objects.requireNonNull(type, "Type cannot be null");
+
+        final DataKey<?> key = REGISTERED.computeIfAbsent(name, unused -> {
+            synchronized (REGISTERED) {
+                return new DataKey<>(name, wrap(type), counter++);
+            }
+        });
+        if (key.type != wrap(type))
+            throw new IllegalArgumentException("Key '" + name + "' is already registered with type " + key.type.getName());
+        return (DataKey<T>) key;
+    }
+
+    @Nullable
+    public static DataKey<?> get(@NotNull String name) {
+        return REGISTERED.get(name);
+    }
+
+    /**
+     * @return Amount of registered keys
+     */
+    public static int count() {
+        return REGISTERED.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Class<T> wrap(Class<T> type) {
+        if (type == int.class) return (Class<T>) Integer.class;
+        if (type == double.class) return (Class<T>) Double.class;
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        return "DataKey{" + name + "}";
+    }
+
+    public enum Kind {
+        OBJECT,
+        INT,
+        DOUBLE
+    }
+}
@@ -0,0 +1,165 @@
+package com.insurgent.lib.api.player;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread-safe store of external data indexed by {@link DataKey}. Values
+ * are stored in arrays using the key index. Integer and double values
+ * are stored as raw longs so that reading and writing them never boxes.
+ * <p>
+ * Arrays grow when new keys are registered after the store was created.
+ */
+public class ExternalDataStore {
+    private volatile Slots slots;
+
+    /**
+     * Stored in the value slot of numeric keys which have a value
+     */
+    private static final Object NUMBER = new Object();
+
+    /**
+     * Stored in every slot of arrays which were copied to larger arrays
+     */
+    private static final Object MOVED = new Object();
+
+    public ExternalDataStore() {
+        final int size = Math.max(8, DataKey.count());
+        slots = new Slots(new AtomicReferenceArray<>(size), new AtomicLongArray(size));
+    }
+
+    public boolean has(@NotNull DataKey<?> key) {
+        final int index = key.getIndex();
+        while (true) {
+            final Slots slots = this.slots;
+            if (index >= slots.length()) return false;
+
+            final Object found = slots.values.get(index);
+            if (found != MOVED) return found != null;
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * @return Value of that key, boxed if the key is numeric
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <T> T get(@NotNull DataKey<T> key) {
+        final int index = key.getIndex();
+        while (true) {
+            final Slots slots = this.slots;
+            if (index >= slots.length()) return null;
+
+            final Object found = slots.values.get(index);
+            if (found == MOVED) {
+                Thread.onSpinWait();
+                continue;
+            }
+            if (found != NUMBER) return (T) found;
+            final long raw = slots.numbers.get(index);
+            return (T) (key.getKind() == DataKey.Kind.INT ? (Object) (int) raw : (Object) Double.longBitsToDouble(raw));
+        }
+    }
+
+    /**
+     * @param value New value, or null to remove it
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void set(@NotNull DataKey<T> key, @Nullable T value) {
+        if (value == null) remove(key);
+        else if (key.getKind() == DataKey.Kind.INT) setInt((DataKey<Integer>) key, ((Number) value).intValue());
+        else if (key.getKind() == DataKey.Kind.DOUBLE) setDouble((DataKey<Double>) key, ((Number) value).doubleValue());
+        else write(key.getIndex(), value, 0);
+    }
+
+    public void remove(@NotNull DataKey<?> key) {
+        write(key.getIndex(), null, 0);
+    }
+
+    public int getInt(@NotNull DataKey<Integer> key, int def) {
+        return (int) getNumber(key.getIndex(), def);
+    }
+
+    public void setInt(@NotNull DataKey<Integer> key, int value) {
+        write(key.getIndex(), NUMBER, value);
+    }
+
+    public double getDouble(@NotNull DataKey<Double> key, double def) {
+        return Double.longBitsToDouble(getNumber(key.getIndex(), Double.doubleToRawLongBits(def)));
+    }
+
+    public void setDouble(@NotNull DataKey<Double> key, double value) {
+        write(key.getIndex(), NUMBER, Double.doubleToRawLongBits(value));
+    }
+
+    private long getNumber(int index, long def) {
+        while (true) {
+            final Slots slots = this.slots;
+            if (index >= slots.length()) return def;
+
+            final Object found = slots.values.get(index);
+            if (found == MOVED) {
+                Thread.onSpinWait();
+                continue;
+            }
+            return found == NUMBER ? slots.numbers.get(index) : def;
+        }
+    }
+
+    /**
+     * Value slots are written using compare-and-set, which fails when the
+     * slot was marked as moved while growing. The write is then performed
+     * again on the new arrays, so no write performed while growing is lost.
+     *
+     * @param value New value, {@link #NUMBER} to write a number or null to remove the value
+     * @param raw   Number written if the value is {@link #NUMBER}
+     */
+    private void write(int index, @Nullable Object value, long raw) {
+        while (true) {
+            final Slots slots = ensureCapacity(index);
+            final Object current = slots.values.get(index);
+            if (current == MOVED) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            // Number is written first, so it is copied along with its slot when growing
+            if (value == NUMBER) slots.numbers.set(index, raw);
+            if (slots.values.compareAndSet(index, current, value)) return;
+        }
+    }
+
+    /**
+     * Arrays are copied when growing. Every slot of the old arrays is marked
+     * as moved before being copied, so that concurrent writes fail and are
+     * performed again once the new arrays are published.
+     */
+    private Slots ensureCapacity(int index) {
+        final Slots current = slots;
+        if (index < current.length()) return current;
+
+        synchronized (this) {
+            final Slots old = slots;
+            if (index < old.length()) return old;
+
+            final int size = Math.max(index + 1, old.length() * 2);
+            final Slots grown = new Slots(new AtomicReferenceArray<>(size), new AtomicLongArray(size));
+            for (int i = 0; i < old.length(); i++) {
+                grown.values.set(i, old.values.getAndSet(i, MOVED));
+                grown.numbers.set(i, old.numbers.get(i));
+            }
+            slots = grown;
+            return grown;
+        }
+    }
+
+    private record Slots(AtomicReferenceArray<Object> values, AtomicLongArray numbers) {
+        private int length() {
+            return values.length();
+        }
+    }
+}
@@ -6,29 +6,39 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Consumer;
 
 public class RPGPlayerData {
     private final UUID playerId;
 
     @Nullable
-    private Player player;
+    private volatile Player player;
 
     /**
      * Last time the player either logged in or logged out.
      */
-    private long lastLogActivity;
+    private volatile long lastLogActivity;
 
     /**
-     * Map used by other plugins to save any type of data. This
+     * Store used by other plugins to save any type of data. This
      * is typically used by MMOCore and MMOItems to store the player
      * resources when the player logs off.
      */
-    private final Map<String, Object> externalData = new HashMap<>();
+    private final ExternalDataStore externalData = new ExternalDataStore();
+
+    /**
+     * External data set using names of keys which are not registered. It is
+     * kept apart from the store so that the deprecated setters never register
+     * keys, which would prevent plugins from registering them with their type.
+     */
+    private final Map<String, Object> legacyExternalData = new ConcurrentHashMap<>();
 
     public RPGPlayerData(@NotNull Player player) {
         this.playerId = player.getUniqueId();
         this.player = player;
+        this.lastLogActivity = System.currentTimeMillis();
     }
 
     public RPGPlayerData(@NotNull UUID playerId) {
@@ -67,18 +77,58 @@ public class RPGPlayerData {
         this.lastLogActivity = System.currentTimeMillis();
     }
 
+    @NotNull
+    public ExternalDataStore getExternalData() {
+        return externalData;
+    }
+
+    @Nullable
+    public <T> T getExternalData(@NotNull DataKey<T> key) {
+        return externalData.get(key);
+    }
+
+    public <T> void setExternalData(@NotNull DataKey<T> key, @Nullable T value) {
+        externalData.set(key, value);
+    }
+
+    public boolean hasExternalData(@NotNull DataKey<?> key) {
+        return externalData.has(key);
+    }
+
+    /**
+     * @deprecated Use {@link #getExternalData(DataKey)} instead
+     */
     @Nullable
+    @Deprecated
     public <T> T getExternalData(String key, Class<T> objectType) {
-        Object found = this.externalData.get(key);
-        return (found == null) ? null : (T)found;
+        final @Nullable DataKey<?> found = DataKey.get(key);
+        final @Nullable Object value = found == null ? null : externalData.get(found);
+        return (T) (value != null ? value : legacyExternalData.get(key));
     }
 
+    /**
+     * Values set before a key with that name is registered are
+     * only visible to {@link #getExternalData(String, Class)}.
+     *
+     * @deprecated Use {@link #setExternalData(DataKey, Object)} instead
+     */
+    @Deprecated
     public void setExternalData(String key, Object obj) {
-        this.externalData.put(key, obj);
+        final @Nullable DataKey<?> found = DataKey.get(key);
+        if (found != null) {
+            externalData.set((DataKey<Object>) found, found.getType().cast(obj));
+            legacyExternalData.remove(key);
+        } else if (obj == null) legacyExternalData.remove(key);
+        else legacyExternalData.put(key, obj);
     }
 
+    /**
+     * @deprecated Use {@link #hasExternalData(DataKey)} instead
+     */
+    @Deprecated
     public boolean hasExternalData(String key) {
-        return this.externalData.containsKey(key);
+        final @Nullable DataKey<?> found = DataKey.get(key);
+        return (found != null && externalData.has(found)) || legacyExternalData.containsKey(key);
     }
 
     @Override
@@ -95,20 +145,25 @@ public class RPGPlayerData {
         return getUniqueId().hashCode();
     }
 
-    private static final Map<UUID, RPGPlayerData> PLAYER_DATA = new WeakHashMap<>();
+    /**
+     * Player data is kept in memory for {@link #CACHE_TIME_OUT} after the player
+     * logs off, as long as there are less than {@link #maxCacheSize} offline
+     * players cached. Online players are never unloaded, and do not count
+     * towards that limit. The limit is only enforced when the cache is swept,
+     * see {@link #flushOfflinePlayerData()}, so it can be exceeded in between.
+     */
+    private static final Map<UUID, RPGPlayerData> PLAYER_DATA = new ConcurrentHashMap<>();
+    private static final List<Consumer<RPGPlayerData>> EVICTION_LISTENERS = new CopyOnWriteArrayList<>();
+    private static volatile int maxCacheSize = 10000;
 
     public static RPGPlayerData setup(Player player) {
-        RPGPlayerData found = PLAYER_DATA.get(player.getUniqueId());
-        if (found == null) {
-            RPGPlayerData playerData = new RPGPlayerData(player);
-            PLAYER_DATA.put(player.getUniqueId(), playerData);
-            return playerData;
-        }
-        found.updatePlayer(player);
-        return found;
+        return PLAYER_DATA.compute(player.getUniqueId(), (uuid, found) -> {
+            if (found == null) return new RPGPlayerData(player);
+            found.updatePlayer(player);
+            return found;
+        });
     }
 
-
     @Deprecated
     public static boolean isLoaded(UUID uuid) {
         return has(uuid);
@@ -143,7 +198,7 @@ public class RPGPlayerData {
     }
 
     public static Collection<RPGPlayerData> getLoaded() {
-        return PLAYER_DATA.values();
+        return Collections.unmodifiableCollection(PLAYER_DATA.values());
     }
 
     public static void forEachOnline(Consumer<RPGPlayerData> action) {
@@ -153,12 +208,56 @@ public class RPGPlayerData {
         }
     }
 
+    /**
+     * Registers a listener called every time player data is unloaded
+     * from the cache, either because it timed out or because too many
+     * offline players were cached.
+     *
+     * @param listener Called with the unloaded player data
+     */
+    public static void registerEvictionListener(@NotNull Consumer<RPGPlayerData> listener) {
+        EVICTION_LISTENERS.add(Objects.requireNonNull(listener, "Listener cannot be null"));
+    }
+
+    public static void setMaxCacheSize(int maxCacheSize) {
+        RPGPlayerData.maxCacheSize = Math.max(0, maxCacheSize);
+    }
+
+    /**
+     * Unloads data of players who have been offline for too long, then unloads
+     * data of the players who logged off first until the cache is small enough.
+     * This is called regularly by WyndoriaLib.
+     */
     public static void flushOfflinePlayerData() {
-        Iterator<RPGPlayerData> iterator = PLAYER_DATA.values().iterator();
-        while (iterator.hasNext()) {
-            RPGPlayerData tempData = iterator.next();
-            if (tempData.isTimedOut())
-                iterator.remove();
+        final List<RPGPlayerData> offline = new ArrayList<>();
+        for (RPGPlayerData tempData : PLAYER_DATA.values()) {
+            if (tempData.isTimedOut()) evict(tempData);
+            else if (!tempData.isOnline()) offline.add(tempData);
         }
+
+        int excess = offline.size() - maxCacheSize;
+        if (excess <= 0) return;
+
+        offline.sort(Comparator.comparingLong(RPGPlayerData::getLastLogActivity));
+        for (int i = 0; i < offline.size() && excess > 0; i++)
+            if (evict(offline.get(i))) excess--;
+    }
+
+    private static boolean evict(RPGPlayerData playerData) {
+        // Player might have logged in again in the meantime
+        final boolean[] removed = new boolean[1];
+        PLAYER_DATA.computeIfPresent(playerData.getUniqueId(), (uuid, found) -> {
+            if (found != playerData || found.isOnline()) return found;
+            removed[0] = true;
+            return null;
+        });
+
+        if (removed[0]) for (Consumer<RPGPlayerData> listener : EVICTION_LISTENERS)
+            try {
+                listener.accept(playerData);
+            } catch (Throwable throwable) {
+                throwable.printStackTrace();
+            }
+        return removed[0];
     }
 }
@@ -0,0 +1,50 @@
+package com.insurgent.lib.command;
+
+import cn.nukkit.command.CommandSender;
+import cn.nukkit.utils.TextFormat;
+import com.insurgent.lib.WyndoriaLib;
+import com.insurgent.lib.database.AutosaveScheduler;
+import com.insurgent.lib.metrics.DataMetrics;
+import com.insurgent.lib.metrics.Histogram;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+/**
+ * Displays database metrics: <code>/wyndorialib metrics [reset]</code>
+ */
+public class MetricsCommand {
+
+    public static boolean execute(CommandSender sender, String[] args) {
+        final DataMetrics metrics = WyndoriaLib.instance.getMetrics();
+        if (args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+            metrics.reset();
+            sender.sendMessage(TextFormat.YELLOW + "Metrics have been reset.");
+            return true;
+        }
+
+        sender.sendMessage(TextFormat.YELLOW + "----- Database metrics -----");
+        for (Map.Entry<DataMetrics.Key, Histogram> entry : metrics.getHistograms().entrySet()) {
+            final Histogram histogram = entry.getValue();
+            sender.sendMessage(TextFormat.GOLD + entry.getKey().toString() + TextFormat.WHITE + " n=" + histogram.getCount()
+                    + " avg=" + String.format("%.1f", histogram.getMean()) + " p50=" + histogram.getPercentile(.5)
+                    + " p99=" + histogram.getPercentile(.99) + " max=" + histogram.getMax());
+        }
+        for (Map.Entry<DataMetrics.Key, Long> entry : metrics.getCounters().entrySet())
+            sender.sendMessage(TextFormat.GOLD + entry.getKey().toString() + TextFormat.WHITE + " " + entry.getValue());
+        metrics.getGauges().forEach((name, gauge) -> {
+            try {
+                sender.sendMessage(TextFormat.GOLD + name + TextFormat.WHITE + " " + gauge.get());
+            } catch (RuntimeException ignored) {
+                // Closed pool
+            }
+        });
+
+        final @Nullable AutosaveScheduler.CycleStats cycle = WyndoriaLib.instance.getAutosaveScheduler().getLastCycle();
+        if (cycle != null)
+            sender.sendMessage(TextFormat.GOLD + "Last autosave" + TextFormat.WHITE + " saved=" + cycle.saved() + " duration=" + cycle.duration()
+                    + "ms slowest-shard=" + cycle.maxLatency() + "ms rate=x" + String.format("%.2f", 1 / cycle.slowdown()));
+        sender.sendMessage(TextFormat.GRAY + "Durations are in milliseconds.");
+        return true;
+    }
+}
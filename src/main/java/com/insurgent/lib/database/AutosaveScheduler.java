@@ -0,0 +1,168 @@
+package com.insurgent.lib.database;
+
+import cn.nukkit.plugin.Plugin;
+import cn.nukkit.utils.LogLevel;
+import com.insurgent.lib.UtilityMethods;
+import com.insurgent.lib.WyndoriaLib;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Autosaves the data of every registered data manager. Players are spread
+ * across shards by unique id and only one shard is saved at a time, so that
+ * the whole autosave interval is used instead of saving everyone at once.
+ * <p>
+ * The next shard is only scheduled once the previous one is saved. When saving
+ * a shard takes longer than the maximum latency, the delay between shards grows
+ * (up to {@link #MAX_SLOWDOWN} times) so that autosaves do not compete with
+ * player loads, and shrinks back once the database keeps up again.
+ */
+public class AutosaveScheduler {
+    private final Plugin plugin;
+
+    private volatile boolean running;
+
+    /**
+     * Incremented on every start, so that shards scheduled before
+     * the scheduler was stopped do not start another chain
+     */
+    private volatile int generation;
+    private volatile long interval, maxLatency;
+    private volatile int shards;
+
+    private int shard;
+    private double slowdown = 1;
+
+    /**
+     * Statistics of the current cycle, and of the last complete cycle
+     */
+    private int cycleShards, cycleSaved;
+    private long cycleStart, cycleMaxLatency;
+    @Nullable
+    private volatile CycleStats lastCycle;
+
+    private static final double MAX_SLOWDOWN = 4;
+
+    public AutosaveScheduler(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * @param interval   Time in milliseconds in which all shards are saved
+     * @param shards     Amount of shards
+     * @param maxLatency Time in milliseconds above which a shard save is considered slow
+     */
+    public void configure(long interval, int shards, long maxLatency) {
+        this.interval = Math.max(1000, interval);
+        this.shards = Math.max(1, shards);
+        this.maxLatency = maxLatency;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+
+        running = true;
+        cycleStart = System.currentTimeMillis();
+        scheduleNext(++generation);
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void scheduleNext(int generation) {
+        final int ticks = (int) Math.max(1, getShardDelay() / 50);
+        plugin.getServer().getScheduler().scheduleDelayedTask(plugin, () -> saveShard(generation), ticks, true);
+    }
+
+    private boolean isCurrent(int generation) {
+        return running && this.generation == generation;
+    }
+
+    /**
+     * @return Current delay in milliseconds between two shards
+     */
+    public synchronized long getShardDelay() {
+        return (long) (interval / shards * slowdown);
+    }
+
+    private void saveShard(int generation) {
+        if (!isCurrent(generation)) return;
+
+        final int saved, total;
+        synchronized (this) {
+            if (shard >= shards) shard = 0;
+            saved = shard++;
+            total = shards;
+        }
+
+        final long start = System.currentTimeMillis();
+        final List<CompletableFuture<?>> futures = new ArrayList<>();
+        final AtomicInteger players = new AtomicInteger();
+        for (SynchronizedDataManager<?, ?> manager : WyndoriaLib.instance.getLoadCoordinator().getManagers())
+            try {
+                futures.add(manager.saveShard(saved, total).thenAccept(players::addAndGet));
+            } catch (Throwable throwable) {
+                plugin.getLogger().log(LogLevel.WARNING, "Could not autosave data of " + manager.getOwning().getName() + ":");
+                throwable.printStackTrace();
+            }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).whenComplete((unused, throwable) -> {
+            if (throwable != null) {
+                plugin.getLogger().log(LogLevel.WARNING, "Could not autosave player data:");
+                throwable.printStackTrace();
+            }
+
+            shardSaved(players.get(), System.currentTimeMillis() - start);
+            if (isCurrent(generation)) scheduleNext(generation);
+        });
+    }
+
+    private synchronized void shardSaved(int players, long latency) {
+        // Adapt rate to save latency
+        if (latency > maxLatency) slowdown = Math.min(MAX_SLOWDOWN, slowdown * 1.5);
+        else if (latency < maxLatency / 2) slowdown = Math.max(1, slowdown / 1.25);
+
+        cycleShards++;
+        cycleSaved += players;
+        cycleMaxLatency = Math.max(cycleMaxLatency, latency);
+        if (cycleShards < shards) return;
+
+        final long now = System.currentTimeMillis();
+        final CycleStats stats = new CycleStats(cycleSaved, cycleShards, now - cycleStart, cycleMaxLatency, slowdown);
+        lastCycle = stats;
+        cycleShards = 0;
+        cycleSaved = 0;
+        cycleMaxLatency = 0;
+        cycleStart = now;
+        UtilityMethods.debug(WyndoriaLib.instance, "Autosave", () -> "Saved " + stats.saved() + " player datas in " + stats.duration() + "ms, slowest shard took " + stats.maxLatency() + "ms, rate x" + String.format("%.2f", 1 / stats.slowdown()));
+    }
+
+    /**
+     * @return Statistics of the last complete cycle, or null if no cycle completed yet
+     */
+    @Nullable
+    public CycleStats getLastCycle() {
+        return lastCycle;
+    }
+
+    /**
+     * Statistics of one complete autosave cycle
+     *
+     * @param saved      Amount of saved player datas
+     * @param shards     Amount of saved shards
+     * @param duration   Time in milliseconds taken by the whole cycle
+     * @param maxLatency Time in milliseconds taken by the slowest shard
+     * @param slowdown   Factor applied to the delay between shards at the end of the cycle
+     */
+    public record CycleStats(int saved, int shards, long duration, long maxLatency, double slowdown) {
+    }
+}
@@ -0,0 +1,136 @@
+package com.insurgent.lib.database;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor used by every data handler to perform blocking I/O operations
+ * (SQL queries, YAML files..) so that they do not compete with the server
+ * and other plugins on the common fork join pool.
+ * <p>
+ * Tasks either run on virtual threads, or on a bounded pool of platform
+ * threads which should be as large as the SQL connection pool. In both
+ * cases the number of pending tasks is limited, and submitting a task
+ * while that limit is reached throws a {@link RejectedExecutionException}.
+ */
+public class DataExecutor implements Executor {
+    private final ExecutorService delegate;
+    private final boolean virtual;
+    private final int maxPending;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong(), rejected = new AtomicLong();
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    /**
+     * @param virtual    Should tasks run on virtual threads
+     * @param threads    Amount of platform threads, ignored with virtual threads
+     * @param maxPending Maximum amount of tasks queued or running at the same time
+     */
+    public DataExecutor(boolean virtual, int threads, int maxPending) {
+        this.virtual = virtual;
+        this.maxPending = Math.max(1, maxPending);
+
+        if (virtual)
+            delegate = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("WyndoriaLib-IO-", 0).factory());
+        else {
+            final int size = Math.max(1, threads);
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                final Thread thread = new Thread(runnable, "WyndoriaLib-IO-" + THREAD_COUNTER.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            delegate = pool;
+        }
+    }
+
+    @Override
+    public void execute(@NotNull Runnable command) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Too many pending data operations (" + maxPending + ")");
+        }
+
+        try {
+            delegate.execute(() -> {
+                try {
+                    command.run();
+                } finally {
+                    pending.decrementAndGet();
+                    completed.incrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException exception) {
+            pending.decrementAndGet();
+            rejected.incrementAndGet();
+            throw exception;
+        }
+    }
+
+    /**
+     * Makes sure the platform thread pool is at least as large as the
+     * given size. This is called by SQL data sources so that every
+     * connection from their pool can be used at the same time.
+     *
+     * @param threads Minimum amount of threads
+     */
+    public void ensureCapacity(int threads) {
+        if (virtual) return;
+
+        final ThreadPoolExecutor pool = (ThreadPoolExecutor) delegate;
+        synchronized (pool) {
+            if (pool.getMaximumPoolSize() >= threads) return;
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
+        }
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * @return Amount of tasks either queued or running
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    /**
+     * Stops accepting new tasks and waits for the pending ones to complete.
+     *
+     * @param timeout Maximum time to wait, in milliseconds
+     * @return If all pending tasks completed in time
+     */
+    public boolean shutdown(long timeout) {
+        delegate.shutdown();
+        try {
+            return delegate.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
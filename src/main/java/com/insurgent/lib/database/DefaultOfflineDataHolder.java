@@ -10,6 +10,6 @@ public class DefaultOfflineDataHolder implements OfflineDataHolder{
     }
 
     public UUID getUniqueId() {
-        return null;
+        return uuid;
     }
 }
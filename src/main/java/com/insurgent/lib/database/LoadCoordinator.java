@@ -0,0 +1,128 @@
+package com.insurgent.lib.database;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coordinates the loading of player data between data managers of all plugins.
+ * Every manager loads the data of a player in its own stage, which starts as soon
+ * as the stages of the managers it depends on are done. Independent managers
+ * load in parallel, so a player is ready after the longest chain of dependent
+ * loads instead of after every load one after the other.
+ * <p>
+ * Managers register themselves when created, and declare their dependencies
+ * using {@link SynchronizedDataManager#dependsOn(SynchronizedDataManager[])}.
+ */
+public class LoadCoordinator {
+    private final Set<SynchronizedDataManager<?, ?>> managers = ConcurrentHashMap.newKeySet();
+    private final Map<UUID, Map<SynchronizedDataManager<?, ?>, CompletableFuture<Void>>> stages = new ConcurrentHashMap<>();
+
+    public void register(@NotNull SynchronizedDataManager<?, ?> manager) {
+        managers.add(manager);
+    }
+
+    /**
+     * @return Unmodifiable view of registered managers
+     */
+    @NotNull
+    public Set<SynchronizedDataManager<?, ?>> getManagers() {
+        return Collections.unmodifiableSet(managers);
+    }
+
+    public void unregister(@NotNull SynchronizedDataManager<?, ?> manager) {
+        managers.remove(manager);
+        stages.values().forEach(playerStages -> playerStages.remove(manager));
+    }
+
+    /**
+     * @return Future completed once the data of that player has been loaded by
+     *         that manager, even if its loading has not started yet. It completes
+     *         exceptionally if the data could not be loaded.
+     */
+    @NotNull
+    public CompletableFuture<Void> getStage(@NotNull UUID uuid, @NotNull SynchronizedDataManager<?, ?> manager) {
+        return stages.computeIfAbsent(uuid, unused -> new ConcurrentHashMap<>()).computeIfAbsent(manager, unused -> new CompletableFuture<>());
+    }
+
+    /**
+     * Called when a manager starts loading the data of a player. A stage
+     * which is already done belongs to a previous session and is replaced.
+     */
+    @NotNull
+    CompletableFuture<Void> startStage(@NotNull UUID uuid, @NotNull SynchronizedDataManager<?, ?> manager) {
+        return stages.computeIfAbsent(uuid, unused -> new ConcurrentHashMap<>()).compute(manager, (unused, stage) -> stage == null || stage.isDone() ? new CompletableFuture<>() : stage);
+    }
+
+    /**
+     * @return Future completed once all the managers this manager depends on
+     *         are done loading the data of that player, successfully or not
+     */
+    @NotNull
+    public CompletableFuture<Void> whenPrerequisitesLoaded(@NotNull UUID uuid, @NotNull SynchronizedDataManager<?, ?> manager) {
+        final List<CompletableFuture<?>> prerequisites = new ArrayList<>();
+        for (SynchronizedDataManager<?, ?> dependency : manager.getDependencies())
+            if (managers.contains(dependency))
+                prerequisites.add(getStage(uuid, dependency).handle((unused, throwable) -> null));
+        return CompletableFuture.allOf(prerequisites.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Composite future of all the stages of a player, this is when
+     * the player has been fully loaded by every plugin.
+     *
+     * @return Future completed once every manager loaded the data of that
+     *         player, or completed exceptionally if any of them failed or
+     *         if no manager is loading the data of that player
+     */
+    @NotNull
+    public CompletableFuture<Void> whenLoaded(@NotNull UUID uuid) {
+        if (!stages.containsKey(uuid))
+            return CompletableFuture.failedFuture(new IllegalStateException("Player data is not being loaded"));
+
+        final List<CompletableFuture<?>> all = new ArrayList<>();
+        for (SynchronizedDataManager<?, ?> manager : managers)
+            all.add(getStage(uuid, manager));
+        return CompletableFuture.allOf(all.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Called when a manager unloads the data of a player. Stages of that
+     * player are forgotten once no manager has their data loaded anymore.
+     */
+    void clear(@NotNull UUID uuid, @NotNull SynchronizedDataManager<?, ?> manager) {
+        stages.computeIfPresent(uuid, (unused, playerStages) -> {
+            final CompletableFuture<Void> stage = playerStages.remove(manager);
+            if (stage != null) stage.cancel(false);
+            for (SynchronizedDataManager<?, ?> other : playerStages.keySet())
+                if (other.isLoaded(uuid)) return playerStages;
+            playerStages.values().forEach(other -> other.cancel(false));
+            return null;
+        });
+    }
+
+    /**
+     * Throws an exception if adding that dependency would create a cycle.
+     */
+    void checkDependency(@NotNull SynchronizedDataManager<?, ?> manager, @NotNull SynchronizedDataManager<?, ?> dependency) {
+        if (dependency == manager || dependsOn(dependency, manager))
+            throw new IllegalArgumentException("Circular dependency between data managers of " + manager.getOwning().getName() + " and " + dependency.getOwning().getName());
+    }
+
+    private boolean dependsOn(SynchronizedDataManager<?, ?> manager, SynchronizedDataManager<?, ?> target) {
+        for (SynchronizedDataManager<?, ?> dependency : manager.getDependencies())
+            if (dependency == target || dependsOn(dependency, target)) return true;
+        return false;
+    }
+
+    public int getTracked() {
+        return stages.size();
+    }
+}
@@ -0,0 +1,276 @@
+package com.insurgent.lib.database;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Limits the amount of player data loads running at the same time, so
+ * that hundreds of players joining at once after a restart do not exhaust
+ * the database connection pool. Other loads wait in a first-in first-out
+ * queue, players who were already playing (for instance on plugin reload)
+ * being loaded before players who just joined.
+ * <p>
+ * Queued loads of players who log off before their turn are cancelled.
+ * <p>
+ * Slots bound the loads actually using the database. A load waiting for
+ * another server to save the data gives its slot back between tries using
+ * {@link Admission#release()}, and waits for a slot again before its next
+ * try using {@link Admission#readmit()}.
+ */
+public class LoadScheduler {
+    private final Deque<Ticket> prioritized = new ArrayDeque<>(), queued = new ArrayDeque<>();
+    private volatile int maxConcurrent;
+    private int running;
+
+    private final AtomicLong admitted = new AtomicLong(), cancelled = new AtomicLong();
+    private final AtomicLong totalWait = new AtomicLong(), maxWait = new AtomicLong();
+
+    /**
+     * Admission of the load being started by the current thread
+     */
+    private final ThreadLocal<Admission> current = new ThreadLocal<>();
+
+    /**
+     * @param maxConcurrent Maximum amount of loads running at the same time
+     */
+    public LoadScheduler(int maxConcurrent) {
+        setMaxConcurrent(maxConcurrent);
+    }
+
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+
+        // Start queued loads if the limit was raised
+        Ticket next;
+        while ((next = poll(false)) != null)
+            start(next);
+    }
+
+    /**
+     * Runs a load as soon as there is room for it.
+     *
+     * @param uuid        Unique id of the player being loaded
+     * @param owner       Object starting the load, usually a data manager
+     * @param prioritized If the player was already playing
+     * @param load        Starts the load
+     * @return Future completed once the load is done, or cancelled if the
+     *         load was cancelled before it started
+     */
+    @NotNull
+    public CompletableFuture<Void> submit(@NotNull UUID uuid, @NotNull Object owner, boolean prioritized, @NotNull Supplier<CompletableFuture<Void>> load) {
+        final Ticket ticket = new Ticket(uuid, owner, load, System.nanoTime(), new CompletableFuture<>(), null);
+        final boolean admit;
+        synchronized (this) {
+            admit = running < maxConcurrent;
+            if (admit) running++;
+            else (prioritized ? this.prioritized : queued).add(ticket);
+        }
+        if (admit) start(ticket);
+        return ticket.result;
+    }
+
+    private void start(Ticket ticket) {
+        // Slot is now held by the admission of a load which started earlier
+        if (ticket.readmitted != null) {
+            ticket.result.complete(null);
+            return;
+        }
+
+        final long wait = System.nanoTime() - ticket.queuedAt;
+        admitted.incrementAndGet();
+        totalWait.addAndGet(wait);
+        maxWait.accumulateAndGet(wait, Math::max);
+
+        final Admission admission = new Admission(ticket.uuid, ticket.owner);
+        CompletableFuture<Void> load;
+        current.set(admission);
+        try {
+            load = ticket.load.get();
+        } catch (Throwable throwable) {
+            load = CompletableFuture.failedFuture(throwable);
+        } finally {
+            current.remove();
+        }
+        load.whenComplete((unused, throwable) -> {
+            admission.release();
+
+            if (throwable == null) ticket.result.complete(null);
+            else ticket.result.completeExceptionally(throwable);
+        });
+    }
+
+    /**
+     * @param release If a running load is done
+     * @return Next load to start, in which case the released slot
+     *         is used by that load, or null if there is none
+     */
+    private synchronized Ticket poll(boolean release) {
+        if (release) running--;
+        if (running >= maxConcurrent) return null;
+
+        Ticket next = prioritized.poll();
+        if (next == null) next = queued.poll();
+        if (next != null) {
+            running++;
+            if (next.readmitted != null) next.readmitted.held = true;
+        }
+        return next;
+    }
+
+    /**
+     * Must be called while a load is being started by {@link #submit(UUID, Object, boolean, Supplier)},
+     * from the thread starting it. Loads which retry later on use it to give
+     * their slot back between tries.
+     *
+     * @return Admission of the load being started, or null if there is none
+     */
+    @Nullable
+    public Admission current() {
+        return current.get();
+    }
+
+    /**
+     * Cancels the queued load of a player. Loads which already started
+     * are not affected.
+     *
+     * @param uuid  Unique id of the player
+     * @param owner Object which started the load
+     * @return If a queued load was cancelled
+     */
+    public boolean cancel(@NotNull UUID uuid, @NotNull Object owner) {
+        final Ticket found;
+        synchronized (this) {
+            final Ticket prioritizedTicket = remove(prioritized, uuid, owner);
+            found = prioritizedTicket != null ? prioritizedTicket : remove(queued, uuid, owner);
+        }
+        if (found == null) return false;
+
+        cancelled.incrementAndGet();
+        found.result.completeExceptionally(new CancellationException("Player logged off before their data was loaded"));
+        return true;
+    }
+
+    private static Ticket remove(Deque<Ticket> queue, UUID uuid, Object owner) {
+        for (Iterator<Ticket> iterator = queue.iterator(); iterator.hasNext(); ) {
+            final Ticket ticket = iterator.next();
+            if (ticket.uuid.equals(uuid) && ticket.owner == owner) {
+                iterator.remove();
+                return ticket;
+            }
+        }
+        return null;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * @return Amount of loads waiting for their turn
+     */
+    public synchronized int getQueued() {
+        return prioritized.size() + queued.size();
+    }
+
+    /**
+     * @return Amount of loads started since server startup
+     */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * @return Average time in milliseconds loads waited before starting
+     */
+    public double getAverageWait() {
+        final long count = admitted.get();
+        return count == 0 ? 0 : totalWait.get() / 1e6 / count;
+    }
+
+    /**
+     * @return Longest time in milliseconds a load waited before starting
+     */
+    public double getMaxWait() {
+        return maxWait.get() / 1e6;
+    }
+
+    /**
+     * Slot given to a started load. The slot is released once the load is
+     * done, or earlier using {@link #release()} while the load waits.
+     */
+    public class Admission {
+        private final UUID uuid;
+        private final Object owner;
+
+        /**
+         * If this load currently holds a slot, guarded by the scheduler
+         */
+        private boolean held = true;
+
+        private Admission(UUID uuid, Object owner) {
+            this.uuid = uuid;
+            this.owner = owner;
+        }
+
+        /**
+         * Gives the slot back so that another load can start. Does
+         * nothing if the slot was already released.
+         */
+        public void release() {
+            synchronized (LoadScheduler.this) {
+                if (!held) return;
+                held = false;
+            }
+            final Ticket next = poll(true);
+            if (next != null) start(next);
+        }
+
+        /**
+         * Waits for a slot again after it was released. Loads resuming are
+         * started before queued loads which have not started yet.
+         *
+         * @return Future completed once the slot is held again, or cancelled if
+         *         the load was cancelled while waiting for it
+         */
+        @NotNull
+        public CompletableFuture<Void> readmit() {
+            final Ticket ticket = new Ticket(uuid, owner, null, System.nanoTime(), new CompletableFuture<>(), this);
+            synchronized (LoadScheduler.this) {
+                if (!held) {
+                    if (running >= maxConcurrent) {
+                        prioritized.addFirst(ticket);
+                        return ticket.result;
+                    }
+                    running++;
+                    held = true;
+                }
+            }
+            ticket.result.complete(null);
+            return ticket.result;
+        }
+    }
+
+    /**
+     * @param readmitted Admission waiting for a slot again, or null for a load which did not start yet
+     */
+    private record Ticket(UUID uuid, Object owner, Supplier<CompletableFuture<Void>> load, long queuedAt,
+                          CompletableFuture<Void> result, @Nullable Admission readmitted) {
+    }
+}
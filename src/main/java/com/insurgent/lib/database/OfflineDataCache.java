@@ -0,0 +1,84 @@
+package com.insurgent.lib.database;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of offline player data used by {@link SynchronizedDataManager#getOffline(UUID)}.
+ * Entries expire some time after they were cached, and when the cache is full the
+ * oldest entries are removed first. Entries must be invalidated when the player
+ * logs in or when their data is saved.
+ */
+public class OfflineDataCache<O extends OfflineDataHolder> {
+    private final Map<UUID, Entry<O>> entries = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final long expireAfter;
+
+    /**
+     * @param maxSize     Maximum amount of cached entries
+     * @param expireAfter Time in milliseconds after which entries expire
+     */
+    public OfflineDataCache(int maxSize, long expireAfter) {
+        this.maxSize = maxSize;
+        this.expireAfter = expireAfter;
+    }
+
+    @Nullable
+    public O get(@NotNull UUID uuid) {
+        final @Nullable Entry<O> entry = entries.get(uuid);
+        if (entry == null) return null;
+        if (entry.expiry >= System.currentTimeMillis()) return entry.data;
+
+        entries.remove(uuid, entry);
+        return null;
+    }
+
+    public void put(@NotNull UUID uuid, @NotNull O data) {
+        if (maxSize <= 0) return;
+
+        entries.put(uuid, new Entry<>(data, System.currentTimeMillis() + expireAfter));
+        if (entries.size() > maxSize) evict();
+    }
+
+    public void invalidate(@NotNull UUID uuid) {
+        entries.remove(uuid);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes expired entries, then the oldest entries until
+     * the cache is 10% below its maximum size so that this
+     * does not have to run on every insertion.
+     */
+    private synchronized void evict() {
+        if (entries.size() <= maxSize) return;
+
+        final long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> entry.expiry < now);
+
+        final int target = maxSize - maxSize / 10;
+        if (entries.size() <= target) return;
+
+        final List<Map.Entry<UUID, Entry<O>>> sorted = new ArrayList<>(entries.entrySet());
+        sorted.sort(Comparator.comparingLong(entry -> entry.getValue().expiry));
+        for (int i = 0; i < sorted.size() && entries.size() > target; i++)
+            entries.remove(sorted.get(i).getKey(), sorted.get(i).getValue());
+    }
+
+    private record Entry<O>(O data, long expiry) {
+    }
+}
@@ -0,0 +1,264 @@
+package com.insurgent.lib.database;
+
+import cn.nukkit.utils.LogLevel;
+import com.insurgent.lib.WyndoriaLib;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Write-behind queue used to save player data asynchronously.
+ * <p>
+ * There is at most one pending write per player: when a save is requested
+ * while another one is still waiting, the older one is dropped as the
+ * newer one will write the latest data anyway. Writes of the same player
+ * never run concurrently and always run in the order they were requested,
+ * including writes covering several players at once such as autosaves,
+ * see {@link #runExclusive(Collection, Function)}.
+ */
+public class SaveQueue {
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong submitted = new AtomicLong(), coalesced = new AtomicLong();
+
+    /**
+     * Every queue is registered so that pending saves can all be
+     * completed when the server shuts down.
+     */
+    private static final Set<SaveQueue> QUEUES = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Delay in milliseconds before trying again to schedule a write
+     * which the data executor refused because it was saturated
+     */
+    private static final long RETRY_DELAY = 100;
+
+    public SaveQueue() {
+        QUEUES.add(this);
+    }
+
+    /**
+     * Queues a write for the given player. If another write is still
+     * pending for that player, it is replaced by this one.
+     *
+     * @param uuid  Player unique id
+     * @param write Operation saving the player data
+     * @return Future completed once the write (or a more recent one) has run
+     */
+    @NotNull
+    public CompletableFuture<Void> submit(@NotNull UUID uuid, @NotNull Runnable write) {
+        final CompletableFuture<Void>[] result = new CompletableFuture[1];
+        final boolean[] start = new boolean[1];
+
+        entries.compute(uuid, (key, entry) -> {
+            if (entry == null) {
+                entry = new Entry();
+                start[0] = true;
+            }
+            if (entry.pending == null) entry.pendingFuture = new CompletableFuture<>();
+            else coalesced.incrementAndGet();
+            entry.pending = write;
+            entry.last = entry.pendingFuture;
+            result[0] = entry.pendingFuture;
+            return entry;
+        });
+        submitted.incrementAndGet();
+
+        if (start[0]) schedule(uuid);
+        return result[0];
+    }
+
+    /**
+     * Runs a write covering several players at once, for instance a batch
+     * autosave. Players who already have a write pending or running are
+     * left out, as that write saves their data anyway. Writes requested
+     * for the other players while this one runs only start once it is done.
+     * <p>
+     * The write runs on the calling thread, which should not be the main thread.
+     *
+     * @param uuids Players unique ids
+     * @param write Operation saving the data of the given players
+     * @return Value returned by the write
+     */
+    public <T> T runExclusive(@NotNull Collection<UUID> uuids, @NotNull Function<Set<UUID>, T> write) {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final Set<UUID> acquired = new HashSet<>();
+        for (UUID uuid : uuids)
+            entries.computeIfAbsent(uuid, key -> {
+                acquired.add(key);
+                final Entry entry = new Entry();
+                entry.last = done;
+                return entry;
+            });
+
+        try {
+            return write.apply(Collections.unmodifiableSet(acquired));
+        } finally {
+            done.complete(null);
+
+            // Start writes requested in the meantime
+            for (UUID uuid : acquired) {
+                final boolean[] start = new boolean[1];
+                entries.computeIfPresent(uuid, (key, entry) -> {
+                    if (entry.pending == null) return null;
+                    start[0] = true;
+                    return entry;
+                });
+                if (start[0]) schedule(uuid);
+            }
+        }
+    }
+
+    /**
+     * Runs the writes of a player on the data executor. When the executor is
+     * saturated, this is tried again shortly after instead of blocking the
+     * calling thread, which is usually the main thread.
+     */
+    private void schedule(UUID uuid) {
+        try {
+            WyndoriaLib.instance.getDataExecutor().execute(() -> run(uuid));
+        } catch (RejectedExecutionException exception) {
+            if (WyndoriaLib.instance.getDataExecutor().isShutdown()) {
+                fail(uuid, exception);
+                return;
+            }
+            CompletableFuture.delayedExecutor(RETRY_DELAY, TimeUnit.MILLISECONDS).execute(() -> schedule(uuid));
+        }
+    }
+
+    /**
+     * Drops the pending write of a player which can no longer be run
+     */
+    private void fail(UUID uuid, Throwable throwable) {
+        final @Nullable Entry entry = entries.remove(uuid);
+        WyndoriaLib.instance.getLogger().log(LogLevel.WARNING, "Could not save data of " + uuid + ", data executor is shut down");
+        if (entry != null && entry.pendingFuture != null) entry.pendingFuture.completeExceptionally(throwable);
+    }
+
+    private void run(UUID uuid) {
+        while (true) {
+            final Runnable[] write = new Runnable[1];
+            final CompletableFuture<Void>[] future = new CompletableFuture[1];
+
+            // Take pending write, or unregister entry if there is none left
+            entries.computeIfPresent(uuid, (key, entry) -> {
+                if (entry.pending == null) return null;
+                write[0] = entry.pending;
+                future[0] = entry.pendingFuture;
+                entry.pending = null;
+                entry.pendingFuture = null;
+                return entry;
+            });
+            if (write[0] == null) return;
+
+            try {
+                write[0].run();
+                future[0].complete(null);
+            } catch (Throwable throwable) {
+                WyndoriaLib.instance.getLogger().log(LogLevel.WARNING, "Could not save data of " + uuid + ":");
+                throwable.printStackTrace();
+                future[0].completeExceptionally(throwable);
+            }
+        }
+    }
+
+    /**
+     * @param uuid Player unique id
+     * @return Future completed once all writes requested so far for
+     *         this player have run. Already completed if there are none.
+     */
+    @NotNull
+    public CompletableFuture<Void> whenIdle(@NotNull UUID uuid) {
+        final Entry entry = entries.get(uuid);
+        final CompletableFuture<Void> last = entry == null ? null : entry.last;
+        return last == null ? CompletableFuture.completedFuture(null) : last.handle((unused, throwable) -> null);
+    }
+
+    public boolean isPending(@NotNull UUID uuid) {
+        return entries.containsKey(uuid);
+    }
+
+    /**
+     * @return Amount of players with a pending or running write
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * @return Amount of writes which were replaced by a more recent one
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Waits for all the writes requested so far to complete.
+     *
+     * @param timeout Maximum time to wait, in milliseconds
+     * @return If all the writes completed in time
+     */
+    public boolean drain(long timeout) {
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (UUID uuid : entries.keySet())
+            futures.add(whenIdle(uuid));
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(timeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * @return Amount of players with writes pending or running, in every save queue
+     */
+    public static int getTotalPending() {
+        int total = 0;
+        for (SaveQueue queue : QUEUES)
+            total += queue.size();
+        return total;
+    }
+
+    /**
+     * Stops tracking this queue in {@link #getTotalPending()} and {@link #drainAll(long)},
+     * once the data manager owning it is closed.
+     */
+    public void unregister() {
+        QUEUES.remove(this);
+    }
+
+    /**
+     * Waits for the writes of every save queue to complete. Data managers
+     * drain their own queue when closed, before their data handler is
+     * closed, so this only catches the queues of managers which were not
+     * closed. It is called when WyndoriaLib is disabled.
+     *
+     * @param timeout Maximum time to wait, in milliseconds, for all queues
+     * @return If all the writes completed in time
+     */
+    public static boolean drainAll(long timeout) {
+        final long end = System.currentTimeMillis() + timeout;
+        boolean success = true;
+        for (SaveQueue queue : QUEUES)
+            success &= queue.drain(Math.max(0, end - System.currentTimeMillis()));
+        return success;
+    }
+
+    private static class Entry {
+        private Runnable pending;
+        private CompletableFuture<Void> pendingFuture;
+        private volatile CompletableFuture<Void> last;
+    }
+}
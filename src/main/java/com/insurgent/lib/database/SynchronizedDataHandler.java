@@ -1,17 +1,127 @@
 package com.insurgent.lib.database;
 
+import cn.nukkit.utils.LogLevel;
+import com.insurgent.lib.WyndoriaLib;
 import com.insurgent.lib.player.modifier.Closeable;
 
-import java.util.UUID;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 public interface SynchronizedDataHandler<H extends SynchronizedDataHolder, O extends OfflineDataHolder> extends Closeable {
 
     public void setup();
 
+    /**
+     * @return Name of the storage backend, used to break down metrics
+     */
+    public default String getBackend() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Saves player data. Implementations must throw an exception when the
+     * data could not be saved, instead of only logging it: the data is then
+     * still considered modified, and is saved again later on.
+     *
+     * @param playerData Player data to save
+     * @param autosave   If this is an autosave
+     */
     public void saveData(H playerData, boolean autosave);
 
+    /**
+     * Saves several player datas at once. Handlers which support it
+     * should group them to reduce the amount of round-trips, by default
+     * they are saved one after the other.
+     *
+     * @param playerData Player datas to save
+     * @param autosave   If this is an autosave
+     * @return Unique ids of the player datas which were saved. Others
+     *         could not be saved, and are saved again later on.
+     */
+    public default Set<UUID> saveAll(Collection<H> playerData, boolean autosave) {
+        final Set<UUID> saved = new HashSet<>();
+        for (H holder : playerData)
+            try {
+                saveData(holder, autosave);
+                saved.add(holder.getUniqueId());
+            } catch (RuntimeException exception) {
+                WyndoriaLib.instance.getLogger().log(LogLevel.WARNING, "Could not save data of '" + holder.getUniqueId() + "':");
+                exception.printStackTrace();
+            }
+        return saved;
+    }
+
+    /**
+     * Called instead of {@link #saveData(SynchronizedDataHolder, boolean)} when
+     * a player logs off and their data did not change since it was last saved.
+     * Handlers which synchronize data between servers should still notify
+     * other servers that the data can be loaded.
+     *
+     * @param playerData Player data being unloaded
+     */
+    public default void releaseData(H playerData) {
+        // Nothing to do by default
+    }
+
+    /**
+     * Called right before the data of a player logging off is saved or released,
+     * on the same thread. Handlers which synchronize data between servers can use
+     * it to hand the data off to the next server, which can only load the data
+     * once it has been saved.
+     *
+     * @param playerData Player data being unloaded
+     */
+    public default void handOff(H playerData) {
+        // Nothing to do by default
+    }
+
+    /**
+     * Called once the data of a player logging off, or of an online player
+     * on shutdown, has been saved or released. Handlers which synchronize data
+     * between servers can use it to notify other servers waiting for that data.
+     *
+     * @param playerData Player data which was saved
+     */
+    public default void notifySaved(H playerData) {
+        // Nothing to do by default
+    }
+
     public CompletableFuture<Void> loadData(H playerData);
 
     public O getOffline(UUID uuid);
+
+    /**
+     * Loads offline data of many players at once. Handlers which support it
+     * should use a single query, by default offline data is loaded by at most
+     * {@link #OFFLINE_PARALLELISM} tasks running at the same time.
+     *
+     * @param uuids Players unique ids
+     * @return Future completed with the offline data of every player, or
+     *         completed exceptionally if the data executor is saturated
+     */
+    public default CompletableFuture<Map<UUID, O>> getOfflineAll(Collection<UUID> uuids) {
+        final List<UUID> list = new ArrayList<>(uuids);
+        final Map<UUID, O> found = new ConcurrentHashMap<>();
+        final int chunk = Math.max(1, (list.size() + OFFLINE_PARALLELISM - 1) / OFFLINE_PARALLELISM);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try {
+            for (int from = 0; from < list.size(); from += chunk) {
+                final List<UUID> slice = list.subList(from, Math.min(list.size(), from + chunk));
+                futures.add(CompletableFuture.runAsync(() -> {
+                    for (UUID uuid : slice)
+                        found.put(uuid, getOffline(uuid));
+                }, WyndoriaLib.instance.getDataExecutor()));
+            }
+        } catch (RejectedExecutionException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(unused -> found);
+    }
+
+    /**
+     * Maximum amount of tasks used by {@link #getOfflineAll(Collection)} by default
+     */
+    public static final int OFFLINE_PARALLELISM = 8;
 }
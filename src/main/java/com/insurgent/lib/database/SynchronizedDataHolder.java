@@ -5,13 +5,30 @@ import com.dfsek.terra.lib.commons.lang3.Validate;
 import com.insurgent.lib.api.player.RPGPlayerData;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SynchronizedDataHolder implements OfflineDataHolder {
     private final RPGPlayerData playerData;
 
     private boolean sync;
 
+    /**
+     * Incremented every time the data is modified. Data only needs
+     * to be saved when it differs from the last saved version.
+     */
+    private final AtomicLong version = new AtomicLong();
+    private volatile long savedVersion;
+
+    /**
+     * Version at which each field was last modified. A field stays modified
+     * until a save which started after that version succeeds.
+     */
+    private final Map<String, Long> modifiedFields = new HashMap<>();
+
     public SynchronizedDataHolder(RPGPlayerData playerData) {
         this.playerData = playerData;
     }
@@ -43,4 +60,73 @@ public class SynchronizedDataHolder implements OfflineDataHolder {
         sync = true;
     }
 
+    /**
+     * Holders which do not track changes are considered always dirty,
+     * and are therefore saved on every autosave and when logging off.
+     * Override this method when calling {@link #markDirty()} every time
+     * the data is modified.
+     *
+     * @return If this holder calls {@link #markDirty()} on every change
+     */
+    public boolean tracksChanges() {
+        return false;
+    }
+
+    /**
+     * Marks the data as modified so that it is saved on the next autosave.
+     */
+    public void markDirty() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Marks one specific field as modified. Handlers may use
+     * {@link #getModifiedFields()} to only write these fields.
+     *
+     * @param field Name of the modified field
+     */
+    protected void markDirty(@NotNull String field) {
+        synchronized (modifiedFields) {
+            modifiedFields.put(field, version.incrementAndGet());
+        }
+    }
+
+    /**
+     * @return If the data was modified since it was last saved
+     */
+    public boolean isDirty() {
+        return !tracksChanges() || version.get() != savedVersion;
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    public long getSavedVersion() {
+        return savedVersion;
+    }
+
+    /**
+     * @return Copy of the fields modified since the last save
+     */
+    @NotNull
+    public Set<String> getModifiedFields() {
+        synchronized (modifiedFields) {
+            return Set.copyOf(modifiedFields.keySet());
+        }
+    }
+
+    /**
+     * Called once the data has been successfully saved. Fields modified
+     * after the save started are still reported as modified.
+     *
+     * @param savedVersion Version of the data when it started saving
+     */
+    public void markSaved(long savedVersion) {
+        synchronized (modifiedFields) {
+            if (savedVersion <= this.savedVersion) return;
+            this.savedVersion = savedVersion;
+            modifiedFields.values().removeIf(fieldVersion -> fieldVersion <= savedVersion);
+        }
+    }
 }
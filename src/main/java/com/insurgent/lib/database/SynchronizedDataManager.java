@@ -9,20 +9,33 @@ import cn.nukkit.event.player.PlayerJoinEvent;
 import cn.nukkit.event.player.PlayerQuitEvent;
 import cn.nukkit.plugin.Plugin;
 import cn.nukkit.plugin.PluginManager;
-import cn.nukkit.scheduler.AsyncTask;
+import cn.nukkit.utils.LogLevel;
+import com.insurgent.lib.UtilityMethods;
+import com.insurgent.lib.WyndoriaLib;
 import com.insurgent.lib.api.event.AsyncSynchronizedDataLoadEvent;
 import com.insurgent.lib.api.player.RPGPlayerData;
+import com.insurgent.lib.metrics.DataMetrics;
 import com.insurgent.lib.player.modifier.Closeable;
+import com.insurgent.lib.trace.Span;
+import com.insurgent.lib.trace.Tracer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.function.Consumer;
 
 public abstract class SynchronizedDataManager<H extends SynchronizedDataHolder, O extends OfflineDataHolder> {
     private final Plugin owning;
-    private final Map<UUID, H> activeData = Collections.synchronizedMap(new HashMap<>());
+    private final Map<UUID, H> activeData = new ConcurrentHashMap<>();
+    private final SaveQueue saveQueue = new SaveQueue();
+    private final OfflineDataCache<O> offlineCache = new OfflineDataCache<>(WyndoriaLib.instance.getConfigManager().offlineCacheSize, WyndoriaLib.instance.getConfigManager().offlineCacheExpiry);
+    private final Set<SynchronizedDataManager<?, ?>> dependencies = new CopyOnWriteArraySet<>();
 
     @NotNull
     private SynchronizedDataHandler<H, O> dataHandler;
@@ -30,10 +43,43 @@ public abstract class SynchronizedDataManager<H extends SynchronizedDataHolder,
     public SynchronizedDataManager(Plugin owning, @NotNull SynchronizedDataHandler<H, O> dataHandler) {
         this.owning = Objects.requireNonNull(owning, "Plugin cannot be null");
         this.dataHandler = Objects  .requireNonNull(dataHandler, "Data handler cannot be null");
+        WyndoriaLib.instance.getLoadCoordinator().register(this);
+    }
+
+    /**
+     * Data of this manager will only be loaded once the data of the given
+     * managers is loaded. Managers which do not depend on each other load
+     * data at the same time.
+     *
+     * @param managers Managers this manager depends on
+     * @return This manager
+     */
+    public SynchronizedDataManager<H, O> dependsOn(@NotNull SynchronizedDataManager<?, ?>... managers) {
+        for (SynchronizedDataManager<?, ?> manager : managers) {
+            WyndoriaLib.instance.getLoadCoordinator().checkDependency(this, Objects.requireNonNull(manager, "Manager cannot be null"));
+            dependencies.add(manager);
+        }
+        return this;
+    }
+
+    @NotNull
+    public Set<SynchronizedDataManager<?, ?>> getDependencies() {
+        return Collections.unmodifiableSet(dependencies);
+    }
+
+    /**
+     * @param uuid Player unique id
+     * @return Future completed once this manager loaded the data of that player
+     * @see LoadCoordinator#whenLoaded(UUID) to wait for all plugins
+     */
+    @NotNull
+    public CompletableFuture<Void> whenLoaded(@NotNull UUID uuid) {
+        return WyndoriaLib.instance.getLoadCoordinator().getStage(uuid, this);
     }
 
     public void setDataHandler(@NotNull SynchronizedDataHandler<H, O> dataHandler) {
         this.dataHandler = Objects.requireNonNull(dataHandler, "Data handler cannot be null");
+        offlineCache.clear();
 
         dataHandler.setup();
     }
@@ -82,23 +128,168 @@ public abstract class SynchronizedDataManager<H extends SynchronizedDataHolder,
      * which can still occur if one of the two players is offline.
      * <p>
      * Unlike {@link #get(UUID)} this method never returns a null instance
+     * <p>
+     * Offline data is cached for a short time, the cache being invalidated
+     * when the player logs in or when their data is saved.
      *
      * @param uuid Player unique id
      * @return Offline player data
      */
     @NotNull
     public O getOffline(UUID uuid) {
-        return isLoaded(uuid) ? (O) activeData.get(uuid) : dataHandler.getOffline(uuid);
+        final @Nullable H loaded = activeData.get(uuid);
+        if (loaded != null) return (O) loaded;
+
+        final @Nullable O cached = offlineCache.get(uuid);
+        if (cached != null) return cached;
+
+        final O offline = dataHandler.getOffline(uuid);
+        cacheOffline(uuid, offline);
+        return offline;
+    }
+
+    /**
+     * Loads the offline data of many players at once, which is much faster
+     * than calling {@link #getOffline(UUID)} for every player when using SQL.
+     *
+     * @param uuids Players unique ids
+     * @return Future completed with the offline data of every player
+     */
+    @NotNull
+    public CompletableFuture<Map<UUID, O>> getOfflineAll(@NotNull Collection<UUID> uuids) {
+        final Map<UUID, O> found = new HashMap<>();
+        final List<UUID> missing = new ArrayList<>();
+        for (UUID uuid : uuids) {
+            final @Nullable H loaded = activeData.get(uuid);
+            final @Nullable O offline = loaded != null ? (O) loaded : offlineCache.get(uuid);
+            if (offline != null) found.put(uuid, offline);
+            else missing.add(uuid);
+        }
+        if (missing.isEmpty()) return CompletableFuture.completedFuture(found);
+
+        return dataHandler.getOfflineAll(missing).thenApply(loaded -> {
+            loaded.forEach((uuid, offline) -> {
+                cacheOffline(uuid, offline);
+                found.put(uuid, offline);
+            });
+            return found;
+        });
+    }
+
+    /**
+     * Caches offline data unless the player logged in while it was being
+     * read. Logging in invalidates the cache right after registering the
+     * player data, so checking again once cached covers logins happening
+     * at the same time.
+     */
+    private void cacheOffline(UUID uuid, O offline) {
+        if (activeData.containsKey(uuid)) return;
+
+        offlineCache.put(uuid, offline);
+        if (activeData.containsKey(uuid)) offlineCache.invalidate(uuid);
+    }
+
+    @NotNull
+    public OfflineDataCache<O> getOfflineCache() {
+        return offlineCache;
     }
 
     /**
      * Saves all currently loaded data. It is either used on server
      * shutdown, which requires to save all the data of currently
      * connected players, or when performing frequent autosaves.
+     * <p>
+     * Autosaves are performed asynchronously while data is saved on
+     * the calling thread on shutdown, as the server would not wait
+     * for the async tasks otherwise.
+     *
+     * @return Future completed once all the data has been saved
+     */
+    public CompletableFuture<Void> saveAll(boolean autosave) {
+        // Only save data which changed since last save
+        final List<H> toSave = new ArrayList<>();
+        for (H holder : getLoaded())
+            if (holder.isSynchronized() && holder.isDirty()) toSave.add(holder);
+        if (toSave.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        if (!autosave) {
+            saveAll(toSave, false);
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> saveAll(toSave, true), WyndoriaLib.instance.getDataExecutor());
+    }
+
+    /**
+     * Autosaves one shard of the loaded data. Players are spread across
+     * shards using their unique id, so that saving every shard one after
+     * the other saves every player once.
+     *
+     * @param shard  Index of the shard to save
+     * @param shards Total amount of shards
+     * @return Future completed with the amount of saved player datas
+     * @see AutosaveScheduler
      */
-    public void saveAll(boolean autosave) {
+    public CompletableFuture<Integer> saveShard(int shard, int shards) {
+        final List<H> toSave = new ArrayList<>();
         for (H holder : getLoaded())
-            if (holder.isSynchronized()) getDataHandler().saveData(holder, autosave);
+            if (Math.floorMod(holder.getUniqueId().hashCode(), shards) == shard && holder.isSynchronized() && holder.isDirty())
+                toSave.add(holder);
+        if (toSave.isEmpty()) return CompletableFuture.completedFuture(0);
+
+        return CompletableFuture.supplyAsync(() -> saveAll(toSave, true), WyndoriaLib.instance.getDataExecutor());
+    }
+
+    /**
+     * Saves player datas through the save queue, so that saves of the same
+     * player never overlap. For instance, a player logging off while their
+     * data is being autosaved is only saved once the autosave is done.
+     *
+     * @return Amount of saved player datas
+     */
+    private int saveAll(List<H> toSave, boolean autosave) {
+        final List<UUID> uuids = new ArrayList<>(toSave.size());
+        for (H holder : toSave)
+            uuids.add(holder.getUniqueId());
+
+        return saveQueue.runExclusive(uuids, acquired -> {
+            // Players who logged off in the meantime are saved by the save queue
+            toSave.removeIf(holder -> !acquired.contains(holder.getUniqueId()) || activeData.get(holder.getUniqueId()) != holder);
+            return toSave.isEmpty() ? 0 : saveNow(toSave, autosave);
+        });
+    }
+
+    private int saveNow(List<H> toSave, boolean autosave) {
+        final long start = System.currentTimeMillis();
+
+        final long[] versions = new long[toSave.size()];
+        for (int i = 0; i < versions.length; i++)
+            versions[i] = toSave.get(i).getVersion();
+
+        final Set<UUID> saved;
+        try {
+            saved = dataHandler.saveAll(toSave, autosave);
+        } catch (RuntimeException exception) {
+            for (int i = 0; i < versions.length; i++)
+                WyndoriaLib.instance.getMetrics().increment(DataMetrics.SAVE_FAILURES, owning.getName(), dataHandler.getBackend());
+            throw exception;
+        }
+        WyndoriaLib.instance.getMetrics().record(DataMetrics.BATCH_SAVE_LATENCY, owning.getName(), dataHandler.getBackend(), System.currentTimeMillis() - start);
+
+        // Data which could not be saved stays modified, and is saved again later on
+        for (int i = 0; i < versions.length; i++) {
+            final H holder = toSave.get(i);
+            if (!saved.contains(holder.getUniqueId())) {
+                WyndoriaLib.instance.getMetrics().increment(DataMetrics.SAVE_FAILURES, owning.getName(), dataHandler.getBackend());
+                continue;
+            }
+            holder.markSaved(versions[i]);
+            if (!autosave) dataHandler.notifySaved(holder);
+            offlineCache.invalidate(holder.getUniqueId());
+        }
+        if (saved.size() < toSave.size())
+            owning.getLogger().log(LogLevel.WARNING, "Could not save data of " + (toSave.size() - saved.size()) + " player(s), it will be saved again later on");
+        UtilityMethods.debug(WyndoriaLib.instance, owning.getName(), () -> "Saved " + saved.size() + " player datas, time taken: " + (System.currentTimeMillis() - start) + "ms");
+        return saved.size();
     }
 
     /**
@@ -106,7 +297,7 @@ public abstract class SynchronizedDataManager<H extends SynchronizedDataHolder,
      * mainly used on server reloads.
      */
     public void setupAll() {
-        owning.getServer().getOnlinePlayers().values().forEach(this::setup);
+        owning.getServer().getOnlinePlayers().values().forEach(player -> setup(player, true));
     }
 
     /**
@@ -121,19 +312,60 @@ public abstract class SynchronizedDataManager<H extends SynchronizedDataHolder,
      * @deprecated
      */
     public H setup(@NotNull Player player) {
+        return setup(player, false);
+    }
+
+    /**
+     * @param prioritized If the player was already playing, their data
+     *                    is then loaded before players who just joined
+     */
+    private H setup(@NotNull Player player, boolean prioritized) {
         // Load player data if it already exists (should never happen)
         final @Nullable H current = activeData.get(player.getUniqueId());
         if (current != null) return current;
 
-        // Initialize player data and schedule loading
-        final H newData = newPlayerData(RPGPlayerData.get(player.getUniqueId()));
-        dataHandler.loadData(newData).thenAccept(unused -> {
-            newData.markAsSynchronized();
-            owning.getServer().getPluginManager().callEvent(new AsyncSynchronizedDataLoadEvent(this, newData));
+        // Initialize player data atomically, only one holder can be created
+        final boolean[] created = new boolean[1];
+        final H newData = activeData.computeIfAbsent(player.getUniqueId(), uuid -> {
+            created[0] = true;
+            return newPlayerData(RPGPlayerData.get(uuid));
         });
+        if (!created[0]) return newData;
+        offlineCache.invalidate(player.getUniqueId());
+
+        // Schedule loading once previous saves and data it depends on are done
+        final LoadCoordinator coordinator = WyndoriaLib.instance.getLoadCoordinator();
+        final CompletableFuture<Void> stage = coordinator.startStage(player.getUniqueId(), this);
+        final DataMetrics metrics = WyndoriaLib.instance.getMetrics();
+        final Span span = Tracer.start(owning, "load", player.getUniqueId());
+        final long start = System.nanoTime();
+        CompletableFuture.allOf(saveQueue.whenIdle(player.getUniqueId()), coordinator.whenPrerequisitesLoaded(player.getUniqueId(), this))
+                .thenCompose(unused -> {
+                    span.mark("prerequisites");
+                    final long queuedAt = System.nanoTime();
+                    return WyndoriaLib.instance.getLoadScheduler().submit(newData.getUniqueId(), this, prioritized, () -> {
+                        metrics.record(DataMetrics.QUEUE_WAIT, owning.getName(), dataHandler.getBackend(), (System.nanoTime() - queuedAt) / 1000000);
+                        span.mark("queue");
+                        return dataHandler.loadData(newData);
+                    });
+                }).thenAccept(unused -> {
+                    newData.markAsSynchronized();
+                    newData.markSaved(newData.getVersion());
+                    metrics.record(DataMetrics.LOAD_LATENCY, owning.getName(), dataHandler.getBackend(), (System.nanoTime() - start) / 1000000);
+                    owning.getServer().getPluginManager().callEvent(new AsyncSynchronizedDataLoadEvent(this, newData));
+                }).whenComplete((unused, throwable) -> {
+                    if (throwable == null) {
+                        span.end("event", "succeeded");
+                        stage.complete(null);
+                    } else {
+                        final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                        if (!(cause instanceof CancellationException))
+                            metrics.increment(DataMetrics.LOAD_FAILURES, owning.getName(), dataHandler.getBackend());
+                        span.end("failure", cause instanceof CancellationException ? "cancelled" : "failed");
+                        stage.completeExceptionally(throwable);
+                    }
+                });
 
-        // Update data map and return
-        activeData.put(player.getUniqueId(), newData);
         return newData;
     }
 
@@ -141,24 +373,75 @@ public abstract class SynchronizedDataManager<H extends SynchronizedDataHolder,
      * Safely unregisters the player data from the map.
      * This saves the player data either through SQL or YAML,
      * then closes the player data and clears it from the data map.
+     * <p>
+     * Saving goes through the save queue, so repeated saves of the
+     * same player are merged and never run at the same time.
      *
      * @param playerData PLayer data to unregister
      */
     public void unregisterSafely(H playerData) {
-        // save data async if required
+        // close and unregister data instantly if no error occurred
+        if (playerData instanceof Closeable) {
+                ((Closeable) playerData).close();
+        }
+        activeData.remove(playerData.getUniqueId(), playerData);
+        WyndoriaLib.instance.getLoadScheduler().cancel(playerData.getUniqueId(), this);
+        WyndoriaLib.instance.getLoadCoordinator().clear(playerData.getUniqueId(), this);
+
+        // save data async if required, otherwise only release it
         if (playerData.isSynchronized())
-            owning.getServer().getScheduler().scheduleAsyncTask(new AsyncTask() {
-                @Override
-                public void onRun() {
-                    dataHandler.saveData(playerData, false);
+            saveQueue.submit(playerData.getUniqueId(), () -> {
+                final Span span = Tracer.start(owning, "save", playerData.getUniqueId());
+                dataHandler.handOff(playerData);
+                span.mark("handoff");
+                // Data which could not be autosaved is still modified and fully saved here
+                if (playerData.isDirty()) {
+                    final long version = playerData.getVersion(), start = System.nanoTime();
+                    try {
+                        dataHandler.saveData(playerData, false);
+                    } catch (RuntimeException exception) {
+                        WyndoriaLib.instance.getMetrics().increment(DataMetrics.SAVE_FAILURES, owning.getName(), dataHandler.getBackend());
+                        span.end("save", "failed");
+                        throw exception;
+                    }
+                    span.mark("save");
+                    WyndoriaLib.instance.getMetrics().record(DataMetrics.SAVE_LATENCY, owning.getName(), dataHandler.getBackend(), (System.nanoTime() - start) / 1000000);
+                    playerData.markSaved(version);
+                } else {
+                    dataHandler.releaseData(playerData);
+                    span.mark("release");
                 }
+                dataHandler.notifySaved(playerData);
+                offlineCache.invalidate(playerData.getUniqueId());
+                span.end("notify", "succeeded");
             });
+    }
 
-        // close and unregister data instantly if no error occurred
-        if (playerData instanceof Closeable) {
-                ((Closeable) playerData).close();
+    @NotNull
+    public SaveQueue getSaveQueue() {
+        return saveQueue;
+    }
+
+    /**
+     * Saves the data of online players, waits for pending saves, then closes
+     * the data handler. Owning plugins must call this when they are disabled
+     * instead of closing the data handler themselves: plugins depending on
+     * WyndoriaLib are disabled before it, so saves still pending once the
+     * data handler is closed would fail.
+     */
+    public void close() {
+        WyndoriaLib.instance.getLoadCoordinator().unregister(this);
+        try {
+            saveAll(false);
+        } catch (RuntimeException exception) {
+            owning.getLogger().log(LogLevel.WARNING, "Could not save data of online players:");
+            exception.printStackTrace();
         }
-        activeData.remove(playerData.getUniqueId());
+
+        if (!saveQueue.drain(WyndoriaLib.instance.getConfigManager().shutdownSaveTimeout))
+            owning.getLogger().warning(saveQueue.size() + " player data save(s) did not complete in time and may be lost");
+        saveQueue.unregister();
+        dataHandler.close();
     }
 
     public void registerEvents(@NotNull EventPriority joinEventPriority) {
@@ -169,8 +452,9 @@ public abstract class SynchronizedDataManager<H extends SynchronizedDataHolder,
 
     /**
      * This method registers the join and quit events which are required in order
-     * to load and unload data at the right time. By manipulating the event priority,
-     * you can choose which plugin load their data first. For instance,
+     * to load and unload data at the right time. Event priorities only choose which
+     * plugin starts loading first, use {@link #dependsOn(SynchronizedDataManager[])}
+     * so that data of a plugin is loaded after the data it depends on. For instance,
      * <p>
      * WyndoriaLib > Core > Items
      *
@@ -188,10 +472,11 @@ public abstract class SynchronizedDataManager<H extends SynchronizedDataHolder,
             onLogin.accept(data);
         }, owning);
 
-        owning.getServer().getPluginManager().registerEvent(PlayerQuitEvent.class, fictiveListener, joinEventPriority, (listener, event) -> {
-            final @NotNull H data = setup(((PlayerJoinEvent) event).getPlayer());
+        owning.getServer().getPluginManager().registerEvent(PlayerQuitEvent.class, fictiveListener, quitEventPriority, (listener, event) -> {
+            final @Nullable H data = getOrNull(((PlayerQuitEvent) event).getPlayer());
+            if (data == null) return;
             unregisterSafely(data);
-            onLogin.accept(data);
+            onQuit.accept(data);
         }, owning);
     }
 
@@ -205,8 +490,13 @@ public abstract class SynchronizedDataManager<H extends SynchronizedDataHolder,
         return activeData.containsKey(uuid);
     }
 
+    /**
+     * @return Unmodifiable view of loaded player datas. It can safely be
+     *         iterated while data is being loaded or unloaded, although
+     *         it may or may not reflect these changes.
+     */
     public Collection<H> getLoaded() {
-        return activeData.values();
+        return Collections.unmodifiableCollection(activeData.values());
     }
 
 }
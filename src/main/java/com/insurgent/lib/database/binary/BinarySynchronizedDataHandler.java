@@ -0,0 +1,291 @@
+package com.insurgent.lib.database.binary;
+
+import cn.nukkit.plugin.Plugin;
+import cn.nukkit.utils.Config;
+import cn.nukkit.utils.LogLevel;
+import com.insurgent.lib.UtilityMethods;
+import com.insurgent.lib.WyndoriaLib;
+import com.insurgent.lib.api.player.RPGPlayerData;
+import com.insurgent.lib.database.OfflineDataHolder;
+import com.insurgent.lib.database.SynchronizedDataHandler;
+import com.insurgent.lib.database.SynchronizedDataHolder;
+import com.insurgent.lib.database.codec.BinaryCodec;
+import com.insurgent.lib.database.yaml.YAMLSynchronizedDataHandler;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stores player data in compact binary files, one per player, instead of
+ * YAML files which are much more expensive to parse and write.
+ * <p>
+ * Every file starts with a header containing the schema version used when
+ * the file was written, so that subclasses can still read files written
+ * with older versions. Files are first written to a temporary file which
+ * then replaces the previous one, so a crash never leaves a half-written file.
+ */
+public abstract class BinarySynchronizedDataHandler<H extends SynchronizedDataHolder, O extends OfflineDataHolder> implements SynchronizedDataHandler<H, O> {
+    private final Plugin owning;
+    private final boolean compress;
+    private final File dataFolder;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int MAGIC = 0x57594E44, FORMAT_VERSION = 1;
+    private static final byte FLAG_COMPRESSED = 1;
+    private static final String EXTENSION = ".dat";
+
+    /**
+     * Encoding buffers are reused by every save made on the same thread
+     */
+    private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+
+    /**
+     * @param owning   Plugin owning the data
+     * @param compress If files should be compressed
+     */
+    public BinarySynchronizedDataHandler(Plugin owning, boolean compress) {
+        this.owning = Objects.requireNonNull(owning, "Plugin cannot be null");
+        this.compress = compress;
+        this.dataFolder = new File(owning.getDataFolder(), "userdata");
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+    }
+
+    @Override
+    public String getBackend() {
+        return "binary";
+    }
+
+    @Override
+    public void setup() {
+        if (!dataFolder.exists()) dataFolder.mkdirs();
+    }
+
+    /**
+     * @throws UncheckedIOException If the data could not be written
+     */
+    @Override
+    public void saveData(H playerData, boolean autosave) {
+        try {
+            writeFile(playerData);
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Could not save data of '" + playerData.getUniqueId() + "'", exception);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> loadData(H playerData) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                readFile(playerData);
+            } catch (IOException | RuntimeException exception) {
+                owning.getLogger().log(LogLevel.WARNING, "Could not load data of '" + playerData.getUniqueId() + "':");
+                exception.printStackTrace();
+                throw new CompletionException(exception);
+            }
+        }, WyndoriaLib.instance.getDataExecutor());
+    }
+
+    /**
+     * Current version of the data written by {@link #writeData(SynchronizedDataHolder, DataOutput)}.
+     * Increment it every time the written data changes.
+     */
+    public int getSchemaVersion() {
+        return requireCodec().getVersion();
+    }
+
+    public void writeData(H playerData, DataOutput output) throws IOException {
+        requireCodec().encode(playerData, output);
+    }
+
+    /**
+     * @param schemaVersion Schema version used when the file was written
+     */
+    public void readData(H playerData, DataInput input, int schemaVersion) throws IOException {
+        requireCodec().decode(playerData, input, schemaVersion);
+    }
+
+    /**
+     * Codec used when {@link #getSchemaVersion()}, {@link #writeData(SynchronizedDataHolder, DataOutput)}
+     * and {@link #readData(SynchronizedDataHolder, DataInput, int)} are not overridden.
+     *
+     * @return Codec or null if data is serialized manually
+     */
+    @Nullable
+    public BinaryCodec<H> getCodec() {
+        return null;
+    }
+
+    private BinaryCodec<H> requireCodec() {
+        return Objects.requireNonNull(getCodec(), "Codec cannot be null when data is not serialized manually");
+    }
+
+    /**
+     * Called when the player has no data yet.
+     */
+    public void loadEmptyData(H playerData) {
+        // Nothing by default
+    }
+
+    @NotNull
+    public File getUserFile(@NotNull UUID uuid) {
+        return new File(dataFolder, uuid + EXTENSION);
+    }
+
+    /**
+     * Serializes player data, header included.
+     *
+     * @param playerData Player data to serialize
+     * @return Serialized player data
+     */
+    protected byte[] encode(H playerData) throws IOException {
+        final Buffer buffer = BUFFER.get();
+        buffer.reset();
+        final DataOutputStream header = new DataOutputStream(buffer);
+        header.writeInt(MAGIC);
+        header.writeByte(FORMAT_VERSION);
+        header.writeInt(getSchemaVersion());
+        header.writeByte(compress ? FLAG_COMPRESSED : 0);
+
+        if (compress) {
+            buffer.deflater.reset();
+            final DeflaterOutputStream deflated = new DeflaterOutputStream(buffer, buffer.deflater, 512);
+            writeData(playerData, new DataOutputStream(deflated));
+            deflated.finish();
+        } else writeData(playerData, header);
+
+        final byte[] content = buffer.toByteArray();
+        buffer.trim();
+        return content;
+    }
+
+    /**
+     * Reads player data serialized using {@link #encode(SynchronizedDataHolder)}.
+     *
+     * @param playerData Player data to load
+     * @param content    Serialized player data
+     */
+    protected void decode(H playerData, byte[] content) throws IOException {
+        final DataInputStream header = new DataInputStream(new ByteArrayInputStream(content));
+        if (header.readInt() != MAGIC) throw new IOException("Not player data of '" + playerData.getUniqueId() + "'");
+        final int formatVersion = header.readByte();
+        if (formatVersion > FORMAT_VERSION) throw new IOException("Unsupported format version " + formatVersion + " for '" + playerData.getUniqueId() + "'");
+        final int schemaVersion = header.readInt();
+        final boolean compressed = (header.readByte() & FLAG_COMPRESSED) != 0;
+
+        final InputStream payloadStream = compressed ? new InflaterInputStream(header) : header;
+        try (DataInputStream payload = new DataInputStream(payloadStream)) {
+            readData(playerData, payload, schemaVersion);
+        }
+    }
+
+    protected void writeFile(H playerData) throws IOException {
+        synchronized (getLock(playerData.getUniqueId())) {
+            UtilityMethods.writeAtomically(getUserFile(playerData.getUniqueId()), encode(playerData));
+        }
+    }
+
+    protected void readFile(H playerData) throws IOException {
+        final @Nullable byte[] content;
+        synchronized (getLock(playerData.getUniqueId())) {
+            final File file = getUserFile(playerData.getUniqueId());
+            content = file.exists() ? Files.readAllBytes(file.toPath()) : null;
+        }
+        if (content == null) loadEmptyData(playerData);
+        else decode(playerData, content);
+    }
+
+    /**
+     * @return Lock which must be held while reading or writing the file of that player
+     */
+    public Object getLock(UUID uuid) {
+        return locks[(uuid.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+    /**
+     * @return If the player already has stored data
+     */
+    protected boolean hasData(UUID uuid) {
+        return getUserFile(uuid).exists();
+    }
+
+    /**
+     * Converts every YAML player data file of the given handler to
+     * the binary format. Players which already have a binary file
+     * are skipped. This should be called once, with no player online.
+     *
+     * @param source        Handler previously used to store data
+     * @param holderFactory Creates empty player data, typically <code>manager::newPlayerData</code>
+     * @param deleteSource  If YAML files should be deleted once converted
+     * @return Amount of converted player datas
+     */
+    public int migrateFromYAML(@NotNull YAMLSynchronizedDataHandler<H, O> source, @NotNull Function<RPGPlayerData, H> holderFactory, boolean deleteSource) {
+        final @Nullable File[] files = source.getDataFolder().listFiles((dir, name) -> name.endsWith(".yml"));
+        if (files == null) return 0;
+
+        setup();
+        int converted = 0;
+        for (File file : files)
+            try {
+                final UUID uuid = UUID.fromString(file.getName().substring(0, file.getName().length() - 4));
+                if (hasData(uuid)) continue;
+
+                final H holder = holderFactory.apply(new RPGPlayerData(uuid));
+                source.loadFromSection(holder, new Config(file, Config.YAML).getRootSection());
+                writeFile(holder);
+                if (deleteSource) file.delete();
+                converted++;
+            } catch (Throwable throwable) {
+                owning.getLogger().log(LogLevel.WARNING, "Could not convert player data file '" + file.getName() + "':");
+                throwable.printStackTrace();
+            }
+
+        owning.getLogger().info("Converted " + converted + " player data files to binary format");
+        return converted;
+    }
+
+    /**
+     * Byte buffer and deflater reused between saves. Closing the deflater
+     * stream does not end a deflater which was provided to it.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        private final Deflater deflater = new Deflater();
+
+        private Buffer() {
+            super(1024);
+        }
+
+        /**
+         * Drops buffers grown by exceptionally large player datas
+         */
+        private void trim() {
+            if (buf.length > MAX_RETAINED_BUFFER) buf = new byte[1024];
+        }
+    }
+
+    @NotNull
+    public Plugin getOwning() {
+        return owning;
+    }
+
+    public boolean isCompressed() {
+        return compress;
+    }
+
+    @NotNull
+    public File getDataFolder() {
+        return dataFolder;
+    }
+}
@@ -0,0 +1,76 @@
+package com.insurgent.lib.database.codec;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+
+/**
+ * Writes every field of a schema one after the other, without
+ * field names. Fields added after the version of the data being
+ * read, and null values, are loaded with their default value.
+ */
+public class BinaryCodec<H> {
+    private final DataSchema<H> schema;
+
+    public BinaryCodec(@NotNull DataSchema<H> schema) {
+        this.schema = schema;
+    }
+
+    @NotNull
+    public DataSchema<H> getSchema() {
+        return schema;
+    }
+
+    public int getVersion() {
+        return schema.getVersion();
+    }
+
+    /**
+     * Serializes a holder, prefixed with the schema version.
+     */
+    public byte[] encode(@NotNull H holder) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(getVersion());
+        encode(holder, output);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads data serialized using {@link #encode(Object)}.
+     */
+    public void decode(@NotNull H holder, byte[] content) throws IOException {
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(content));
+        final int version = input.readInt();
+        if (version > getVersion()) throw new IOException("Unsupported schema version " + version);
+        decode(holder, input, version);
+    }
+
+    public void encode(@NotNull H holder, @NotNull DataOutput output) throws IOException {
+        for (DataSchema.Field<H, ?> field : schema.getFields())
+            write(field, holder, output);
+    }
+
+    /**
+     * Every value is prefixed by a flag telling if it is present
+     */
+    private static <H, T> void write(DataSchema.Field<H, T> field, H holder, DataOutput output) throws IOException {
+        final @Nullable T value = field.get(holder);
+        output.writeBoolean(value != null);
+        if (value != null) field.type().write(output, value);
+    }
+
+    /**
+     * @param version Schema version used when the data was written
+     */
+    public void decode(@NotNull H holder, @NotNull DataInput input, int version) throws IOException {
+        for (DataSchema.Field<H, ?> field : schema.getFields())
+            if (field.since() <= version) read(field, holder, input);
+            else field.loadDefault(holder);
+    }
+
+    private static <H, T> void read(DataSchema.Field<H, T> field, H holder, DataInput input) throws IOException {
+        field.set(holder, input.readBoolean() ? field.type().read(input) : field.defaultValue());
+    }
+}
@@ -0,0 +1,92 @@
+package com.insurgent.lib.database.codec;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Declares once the fields of a data holder, so that binary, SQL
+ * and YAML codecs can all be derived from that single declaration.
+ * <pre>{@code
+ * public static final DataSchema<PlayerData> SCHEMA = new DataSchema<PlayerData>(2)
+ *         .add("level", FieldType.INT, PlayerData::getLevel, PlayerData::setLevel, 1)
+ *         .add("class", FieldType.STRING, PlayerData::getClassName, PlayerData::setClassName, null)
+ *         .add("friends", FieldType.STRING_LIST, PlayerData::getFriends, PlayerData::setFriends, List.of(), 2);
+ * }</pre>
+ * Fields must only ever be appended. The binary codec relies on the field
+ * order, and reads fields added in a later schema version as their default value.
+ *
+ * @param <H> Type of data holder
+ */
+public class DataSchema<H> {
+    private final int version;
+    private final List<Field<H, ?>> fields = new ArrayList<>();
+
+    /**
+     * @param version Current schema version, incremented every time fields are added
+     */
+    public DataSchema(int version) {
+        this.version = version;
+    }
+
+    public <T> DataSchema<H> add(@NotNull String name, @NotNull FieldType<T> type, @NotNull Function<H, T> getter, @NotNull BiConsumer<H, T> setter, T defaultValue) {
+        return add(name, type, getter, setter, defaultValue, 1);
+    }
+
+    /**
+     * @param since Schema version in which the field was added
+     */
+    public <T> DataSchema<H> add(@NotNull String name, @NotNull FieldType<T> type, @NotNull Function<H, T> getter, @NotNull BiConsumer<H, T> setter, T defaultValue, int since) {
+        for (Field<H, ?> field : fields)
+            if (field.name().equals(name)) throw new IllegalArgumentException("Field '" + name + "' is already declared");
+        if (since > version) throw new IllegalArgumentException("Field '" + name + "' cannot be newer than the schema");
+
+        fields.add(new Field<>(Objects.requireNonNull(name), Objects.requireNonNull(type), Objects.requireNonNull(getter), Objects.requireNonNull(setter), defaultValue, since));
+        return this;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    @NotNull
+    public List<Field<H, ?>> getFields() {
+        return Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * Resets every field to its default value, used when no data is found.
+     */
+    public void loadDefaults(@NotNull H holder) {
+        for (Field<H, ?> field : fields)
+            field.loadDefault(holder);
+    }
+
+    /**
+     * @param name         Field name, also used as SQL column name and YAML key
+     * @param type         Field type
+     * @param getter       Reads the field from the holder
+     * @param setter       Writes the field to the holder
+     * @param defaultValue Value used when the field is not found
+     * @param since        Schema version in which the field was added
+     */
+    public record Field<H, T>(String name, FieldType<T> type, Function<H, T> getter, BiConsumer<H, T> setter, T defaultValue, int since) {
+
+        public T get(H holder) {
+            return getter.apply(holder);
+        }
+
+        public void set(H holder, T value) {
+            setter.accept(holder, value);
+        }
+
+        public void loadDefault(H holder) {
+            setter.accept(holder, defaultValue);
+        }
+    }
+}
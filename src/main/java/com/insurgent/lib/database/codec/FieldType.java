@@ -0,0 +1,295 @@
+package com.insurgent.lib.database.codec;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Describes how values of one type are written to and read
+ * from every storage backend: binary, SQL columns and YAML.
+ * <p>
+ * Values given to field types are never null. Codecs store null values
+ * themselves and load them back as the default value of the field.
+ *
+ * @param <T> Java type of the values
+ */
+public abstract class FieldType<T> {
+
+    public abstract void write(DataOutput output, T value) throws IOException;
+
+    public abstract T read(DataInput input) throws IOException;
+
+    public abstract void bind(PreparedStatement statement, int index, T value) throws SQLException;
+
+    /**
+     * @return Value of the column, or null if it is SQL NULL
+     */
+    @Nullable
+    public abstract T get(ResultSet result, String column) throws SQLException;
+
+    /**
+     * @return SQL type from {@link Types} used to bind null values
+     */
+    public int getSQLType() {
+        return Types.VARCHAR;
+    }
+
+    /**
+     * @return Value as stored in a YAML config section
+     */
+    public Object toYAML(T value) {
+        return value;
+    }
+
+    /**
+     * @param raw Object found in the YAML config section, never null
+     */
+    public abstract T fromYAML(Object raw);
+
+    public static final FieldType<Integer> INT = new FieldType<>() {
+        @Override
+        public void write(DataOutput output, Integer value) throws IOException {
+            output.writeInt(value);
+        }
+
+        @Override
+        public Integer read(DataInput input) throws IOException {
+            return input.readInt();
+        }
+
+        @Override
+        public void bind(PreparedStatement statement, int index, Integer value) throws SQLException {
+            statement.setInt(index, value);
+        }
+
+        @Override
+        public Integer get(ResultSet result, String column) throws SQLException {
+            final int value = result.getInt(column);
+            return result.wasNull() ? null : value;
+        }
+
+        @Override
+        public int getSQLType() {
+            return Types.INTEGER;
+        }
+
+        @Override
+        public Integer fromYAML(Object raw) {
+            return ((Number) raw).intValue();
+        }
+    };
+
+    public static final FieldType<Long> LONG = new FieldType<>() {
+        @Override
+        public void write(DataOutput output, Long value) throws IOException {
+            output.writeLong(value);
+        }
+
+        @Override
+        public Long read(DataInput input) throws IOException {
+            return input.readLong();
+        }
+
+        @Override
+        public void bind(PreparedStatement statement, int index, Long value) throws SQLException {
+            statement.setLong(index, value);
+        }
+
+        @Override
+        public Long get(ResultSet result, String column) throws SQLException {
+            final long value = result.getLong(column);
+            return result.wasNull() ? null : value;
+        }
+
+        @Override
+        public int getSQLType() {
+            return Types.BIGINT;
+        }
+
+        @Override
+        public Long fromYAML(Object raw) {
+            return ((Number) raw).longValue();
+        }
+    };
+
+    public static final FieldType<Double> DOUBLE = new FieldType<>() {
+        @Override
+        public void write(DataOutput output, Double value) throws IOException {
+            output.writeDouble(value);
+        }
+
+        @Override
+        public Double read(DataInput input) throws IOException {
+            return input.readDouble();
+        }
+
+        @Override
+        public void bind(PreparedStatement statement, int index, Double value) throws SQLException {
+            statement.setDouble(index, value);
+        }
+
+        @Override
+        public Double get(ResultSet result, String column) throws SQLException {
+            final double value = result.getDouble(column);
+            return result.wasNull() ? null : value;
+        }
+
+        @Override
+        public int getSQLType() {
+            return Types.DOUBLE;
+        }
+
+        @Override
+        public Double fromYAML(Object raw) {
+            return ((Number) raw).doubleValue();
+        }
+    };
+
+    public static final FieldType<Boolean> BOOLEAN = new FieldType<>() {
+        @Override
+        public void write(DataOutput output, Boolean value) throws IOException {
+            output.writeBoolean(value);
+        }
+
+        @Override
+        public Boolean read(DataInput input) throws IOException {
+            return input.readBoolean();
+        }
+
+        @Override
+        public void bind(PreparedStatement statement, int index, Boolean value) throws SQLException {
+            statement.setBoolean(index, value);
+        }
+
+        @Override
+        public Boolean get(ResultSet result, String column) throws SQLException {
+            final boolean value = result.getBoolean(column);
+            return result.wasNull() ? null : value;
+        }
+
+        @Override
+        public int getSQLType() {
+            return Types.BOOLEAN;
+        }
+
+        @Override
+        public Boolean fromYAML(Object raw) {
+            return raw instanceof Boolean ? (Boolean) raw : Boolean.parseBoolean(raw.toString());
+        }
+    };
+
+    public static final FieldType<String> STRING = new FieldType<>() {
+        @Override
+        public void write(DataOutput output, String value) throws IOException {
+            writeString(output, value);
+        }
+
+        @Override
+        public String read(DataInput input) throws IOException {
+            return readString(input);
+        }
+
+        @Override
+        public void bind(PreparedStatement statement, int index, String value) throws SQLException {
+            statement.setString(index, value);
+        }
+
+        @Override
+        public String get(ResultSet result, String column) throws SQLException {
+            return result.getString(column);
+        }
+
+        @Override
+        public String fromYAML(Object raw) {
+            return raw.toString();
+        }
+    };
+
+    /**
+     * Lists are stored in SQL as a single text column, every element
+     * being prefixed by its length: <code>5:apple6:banana</code>.
+     * Elements cannot be null.
+     */
+    public static final FieldType<List<String>> STRING_LIST = new FieldType<>() {
+        @Override
+        public void write(DataOutput output, List<String> value) throws IOException {
+            output.writeInt(value.size());
+            for (String element : value)
+                writeString(output, Objects.requireNonNull(element, "List elements cannot be null"));
+        }
+
+        @Override
+        public List<String> read(DataInput input) throws IOException {
+            final int size = input.readInt();
+            if (size < 0) throw new IOException("Invalid list size " + size);
+            final List<String> list = new ArrayList<>(Math.min(size, 256));
+            for (int i = 0; i < size; i++)
+                list.add(readString(input));
+            return list;
+        }
+
+        @Override
+        public void bind(PreparedStatement statement, int index, List<String> value) throws SQLException {
+            final StringBuilder builder = new StringBuilder();
+            for (String element : value)
+                builder.append(Objects.requireNonNull(element, "List elements cannot be null").length()).append(':').append(element);
+            statement.setString(index, builder.toString());
+        }
+
+        @Override
+        public List<String> get(ResultSet result, String column) throws SQLException {
+            final @Nullable String raw = result.getString(column);
+            if (raw == null) return null;
+
+            final List<String> list = new ArrayList<>();
+            int index = 0;
+            while (index < raw.length()) {
+                final int separator = raw.indexOf(':', index);
+                try {
+                    final int end = separator + 1 + Integer.parseInt(raw, index, separator, 10);
+                    list.add(raw.substring(separator + 1, end));
+                    index = end;
+                } catch (RuntimeException exception) {
+                    throw new SQLException("Malformed list in column '" + column + "'", exception);
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public List<String> fromYAML(Object raw) {
+            final List<String> list = new ArrayList<>();
+            if (raw instanceof List<?>) for (Object element : (List<?>) raw)
+                list.add(String.valueOf(element));
+            return list;
+        }
+    };
+
+    /**
+     * Strings are written as their length in bytes followed by their UTF-8 bytes.
+     * Unlike {@link DataOutput#writeUTF(String)}, this is not limited to 64KB.
+     */
+    private static void writeString(DataOutput output, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInput input) throws IOException {
+        final int length = input.readInt();
+        if (length < 0) throw new IOException("Invalid string length " + length);
+        final byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,90 @@
+package com.insurgent.lib.database.codec;
+
+import com.insurgent.lib.database.SynchronizedDataHolder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores every field of a schema in the SQL column of the same name.
+ * Null values are stored as SQL NULL and loaded as the default value.
+ * The upsert statement also sets 'is_saved', so that it can be used to
+ * save data synchronized between servers.
+ */
+public class SQLCodec<H extends SynchronizedDataHolder> {
+    private final DataSchema<H> schema;
+    private final List<String> columns = new ArrayList<>();
+    private final String upsert;
+
+    public SQLCodec(@NotNull DataSchema<H> schema, @NotNull String tableName, @NotNull String uuidFieldName) {
+        this.schema = schema;
+
+        final StringBuilder insert = new StringBuilder("INSERT INTO `" + tableName + "` (`" + uuidFieldName + "`, `is_saved`");
+        final StringBuilder values = new StringBuilder(" VALUES (?, ?");
+        final StringBuilder update = new StringBuilder(" ON DUPLICATE KEY UPDATE `is_saved` = VALUES(`is_saved`)");
+        for (DataSchema.Field<H, ?> field : schema.getFields()) {
+            columns.add(field.name());
+            insert.append(", `").append(field.name()).append('`');
+            values.append(", ?");
+            update.append(", `").append(field.name()).append("` = VALUES(`").append(field.name()).append("`)");
+        }
+        upsert = insert.append(')').append(values).append(')').append(update).append(';').toString();
+    }
+
+    @NotNull
+    public DataSchema<H> getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return Columns read by {@link #decode(SynchronizedDataHolder, ResultSet)}
+     */
+    @NotNull
+    public List<String> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * @return Statement saving a holder, see {@link #bind(PreparedStatement, SynchronizedDataHolder, boolean)}
+     */
+    @NotNull
+    public String getUpsertStatement() {
+        return upsert;
+    }
+
+    /**
+     * Binds the parameters of {@link #getUpsertStatement()}
+     *
+     * @param release If 'is_saved' should be set to 1, letting other servers
+     *                load the data. This must be false for autosaves.
+     */
+    public void bind(@NotNull PreparedStatement statement, @NotNull H holder, boolean release) throws SQLException {
+        statement.setString(1, holder.getUniqueId().toString());
+        statement.setInt(2, release ? 1 : 0);
+        int index = 3;
+        for (DataSchema.Field<H, ?> field : schema.getFields())
+            bind(field, holder, statement, index++);
+    }
+
+    private static <H, T> void bind(DataSchema.Field<H, T> field, H holder, PreparedStatement statement, int index) throws SQLException {
+        final @Nullable T value = field.get(holder);
+        if (value == null) statement.setNull(index, field.type().getSQLType());
+        else field.type().bind(statement, index, value);
+    }
+
+    public void decode(@NotNull H holder, @NotNull ResultSet result) throws SQLException {
+        for (DataSchema.Field<H, ?> field : schema.getFields())
+            read(field, holder, result);
+    }
+
+    private static <H, T> void read(DataSchema.Field<H, T> field, H holder, ResultSet result) throws SQLException {
+        final @Nullable T value = field.type().get(result, field.name());
+        field.set(holder, value == null ? field.defaultValue() : value);
+    }
+}
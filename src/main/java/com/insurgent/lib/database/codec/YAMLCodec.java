@@ -0,0 +1,42 @@
+package com.insurgent.lib.database.codec;
+
+import cn.nukkit.utils.ConfigSection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Stores every field of a schema under its name in a config section.
+ * Fields which are not found are loaded with their default value.
+ */
+public class YAMLCodec<H> {
+    private final DataSchema<H> schema;
+
+    public YAMLCodec(@NotNull DataSchema<H> schema) {
+        this.schema = schema;
+    }
+
+    @NotNull
+    public DataSchema<H> getSchema() {
+        return schema;
+    }
+
+    public void encode(@NotNull H holder, @NotNull ConfigSection config) {
+        for (DataSchema.Field<H, ?> field : schema.getFields())
+            write(field, holder, config);
+    }
+
+    private static <H, T> void write(DataSchema.Field<H, T> field, H holder, ConfigSection config) {
+        final @Nullable T value = field.get(holder);
+        config.set(field.name(), value == null ? null : field.type().toYAML(value));
+    }
+
+    public void decode(@NotNull H holder, @NotNull ConfigSection config) {
+        for (DataSchema.Field<H, ?> field : schema.getFields())
+            read(field, holder, config);
+    }
+
+    private static <H, T> void read(DataSchema.Field<H, T> field, H holder, ConfigSection config) {
+        final @Nullable Object raw = config.get(field.name());
+        field.set(holder, raw == null ? field.defaultValue() : field.type().fromYAML(raw));
+    }
+}
@@ -0,0 +1,50 @@
+package com.insurgent.lib.database.handoff;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+
+/**
+ * Second-tier cache shared by the servers of a network, used to hand off
+ * player data when a player switches servers. The server the player leaves
+ * writes a snapshot of their data once it is saved, and the server the
+ * player joins reads it instead of reading the full row from the database.
+ * <p>
+ * The database remains the source of truth. Snapshots are only hints which
+ * expire quickly, and every method may fail or return null, in which case
+ * data is loaded from the database. Snapshots are discarded by every save
+ * which does not write one. All servers sharing a database must therefore
+ * use the same cache: saves made by a server without it cannot discard
+ * snapshots, which could then be read although they are outdated.
+ * <p>
+ * Implementations must be thread-safe. Methods are called from the data
+ * executor and can block, for instance to reach a remote cache.
+ */
+public interface HandoffCache {
+
+    /**
+     * Stores the latest snapshot of a player, replacing any previous one.
+     *
+     * @param namespace   Identifies the data, usually the plugin owning it
+     * @param uuid        Player unique id
+     * @param snapshot    Serialized player data
+     * @param expireAfter Time in milliseconds after which the snapshot expires
+     */
+    public void put(@NotNull String namespace, @NotNull UUID uuid, byte[] snapshot, long expireAfter);
+
+    /**
+     * Removes and returns the snapshot of a player, so that a
+     * snapshot can never be read twice.
+     *
+     * @return Snapshot or null if there is none or if it expired
+     */
+    @Nullable
+    public byte[] take(@NotNull String namespace, @NotNull UUID uuid);
+
+    public void invalidate(@NotNull String namespace, @NotNull UUID uuid);
+
+    public default void close() {
+        // Nothing by default
+    }
+}
@@ -0,0 +1,18 @@
+package com.insurgent.lib.database.handoff;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+/**
+ * Notifies waiting loads of the same server only, which makes it a
+ * reference implementation for testing, or for networks running
+ * several servers in the same process.
+ */
+public class LocalSaveNotifier extends SaveNotifier {
+
+    @Override
+    public void publish(@NotNull String namespace, @NotNull UUID uuid) {
+        wake(namespace, uuid);
+    }
+}
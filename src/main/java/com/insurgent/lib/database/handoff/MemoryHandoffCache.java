@@ -0,0 +1,54 @@
+package com.insurgent.lib.database.handoff;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handoff cache stored in memory. It is only shared by handlers of
+ * the same server, which makes it a reference implementation for
+ * testing, or for networks running several servers in the same process.
+ */
+public class MemoryHandoffCache implements HandoffCache {
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public void put(@NotNull String namespace, @NotNull UUID uuid, byte[] snapshot, long expireAfter) {
+        Objects.requireNonNull(snapshot, "Snapshot cannot be null");
+
+        final long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> entry.expiry < now);
+        entries.put(new Key(namespace, uuid), new Entry(snapshot.clone(), now + expireAfter));
+    }
+
+    @Nullable
+    @Override
+    public byte[] take(@NotNull String namespace, @NotNull UUID uuid) {
+        final @Nullable Entry entry = entries.remove(new Key(namespace, uuid));
+        return entry == null || entry.expiry < System.currentTimeMillis() ? null : entry.snapshot;
+    }
+
+    @Override
+    public void invalidate(@NotNull String namespace, @NotNull UUID uuid) {
+        entries.remove(new Key(namespace, uuid));
+    }
+
+    @Override
+    public void close() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private record Key(String namespace, UUID uuid) {
+    }
+
+    private record Entry(byte[] snapshot, long expiry) {
+    }
+}
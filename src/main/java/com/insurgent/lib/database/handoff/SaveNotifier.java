@@ -0,0 +1,83 @@
+package com.insurgent.lib.database.handoff;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Channel used by servers to signal that the data of a player has been
+ * saved and can be loaded by another server. Servers waiting for that
+ * data are woken up right away instead of waiting for their next try.
+ * <p>
+ * Notifications are only hints. A missed notification delays the load
+ * until the next try, and a spurious one only triggers an extra try.
+ */
+public abstract class SaveNotifier {
+    private final Map<Key, List<CompletableFuture<Void>>> waiting = new ConcurrentHashMap<>();
+
+    /**
+     * Signals every server that the data of that player was saved.
+     *
+     * @param namespace Identifies the data, usually the plugin owning it
+     * @param uuid      Player unique id
+     */
+    public abstract void publish(@NotNull String namespace, @NotNull UUID uuid);
+
+    /**
+     * Waits for the next notification concerning that player. Waiting
+     * should start before checking if data can be loaded, otherwise a
+     * notification sent in between would be missed.
+     *
+     * @return Future completed once notified. Cancel it to stop waiting.
+     */
+    @NotNull
+    public CompletableFuture<Void> awaitSaved(@NotNull String namespace, @NotNull UUID uuid) {
+        final Key key = new Key(namespace, uuid);
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        waiting.computeIfAbsent(key, unused -> new CopyOnWriteArrayList<>()).add(future);
+        future.whenComplete((unused, throwable) -> waiting.computeIfPresent(key, (unused1, list) -> {
+            list.remove(future);
+            return list.isEmpty() ? null : list;
+        }));
+        onWait();
+        return future;
+    }
+
+    /**
+     * Called every time a server starts waiting for a notification.
+     */
+    protected void onWait() {
+        // Nothing by default
+    }
+
+    /**
+     * Wakes up everything waiting for a notification concerning that player.
+     */
+    protected void wake(@NotNull String namespace, @NotNull UUID uuid) {
+        final List<CompletableFuture<Void>> futures = waiting.remove(new Key(namespace, uuid));
+        if (futures != null) futures.forEach(future -> future.complete(null));
+    }
+
+    /**
+     * @return If something is waiting for a notification
+     */
+    public boolean hasWaiting() {
+        return !waiting.isEmpty();
+    }
+
+    /**
+     * Stops all waits, which then rely on regular tries.
+     */
+    public void close() {
+        waiting.values().forEach(futures -> futures.forEach(future -> future.cancel(false)));
+        waiting.clear();
+    }
+
+    private record Key(String namespace, UUID uuid) {
+    }
+}
@@ -0,0 +1,188 @@
+package com.insurgent.lib.database.log;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * Memory-mapped hash table mapping player unique ids to the location
+ * of their latest record in the log segments. It uses open addressing
+ * with linear probing, and doubles its capacity when 70% full.
+ * <p>
+ * This class is not thread-safe, {@link LogStore} takes care of locking.
+ */
+class LogIndex {
+    private final File file;
+    private final RandomAccessFile access;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity, size;
+
+    private static final int MAGIC = 0x57594E49, VERSION = 1;
+    private static final int HEADER_SIZE = 64, SLOT_SIZE = 32, INITIAL_CAPACITY = 1024;
+    private static final int CAPACITY_POSITION = 8, SIZE_POSITION = 12, CLEAN_POSITION = 16;
+    private static final double MAX_LOAD = .7;
+
+    /**
+     * Opens the index file, or creates it if it does not exist.
+     *
+     * @param file Index file
+     */
+    LogIndex(File file) throws IOException {
+        this.file = file;
+        final boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+        access = new RandomAccessFile(file, "rw");
+        channel = access.getChannel();
+
+        if (exists) {
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (header.getInt(0) == MAGIC && header.getInt(4) == VERSION) {
+                capacity = header.getInt(CAPACITY_POSITION);
+                map(capacity);
+                size = buffer.getInt(SIZE_POSITION);
+                return;
+            }
+        }
+
+        capacity = INITIAL_CAPACITY;
+        map(capacity);
+        clear();
+    }
+
+    private void map(int capacity) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(CAPACITY_POSITION, capacity);
+    }
+
+    /**
+     * @return If the index was properly closed last time, otherwise
+     *         it may not reflect the content of the log segments.
+     */
+    boolean isClean() {
+        return buffer.get(CLEAN_POSITION) == 1;
+    }
+
+    void setClean(boolean clean) {
+        buffer.put(CLEAN_POSITION, (byte) (clean ? 1 : 0));
+        buffer.force();
+    }
+
+    void clear() {
+        for (int i = 0; i < capacity; i++)
+            writeSlot(i, 0, 0, 0, 0, 0);
+        size = 0;
+        buffer.putInt(SIZE_POSITION, 0);
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Nullable
+    LogStore.Location get(@NotNull UUID uuid) {
+        final long most = uuid.getMostSignificantBits(), least = uuid.getLeastSignificantBits();
+        for (int i = slot(most, least), probes = 0; probes < capacity; i = (i + 1) & (capacity - 1), probes++) {
+            final int position = HEADER_SIZE + i * SLOT_SIZE;
+            final long slotMost = buffer.getLong(position), slotLeast = buffer.getLong(position + 8);
+            if (slotMost == 0 && slotLeast == 0) return null;
+            if (slotMost == most && slotLeast == least)
+                return new LogStore.Location(buffer.getInt(position + 16), buffer.getLong(position + 24), buffer.getInt(position + 20));
+        }
+        return null;
+    }
+
+    /**
+     * @return Previous location of that player, if any
+     */
+    @Nullable
+    LogStore.Location put(@NotNull UUID uuid, @NotNull LogStore.Location location) throws IOException {
+        if (size + 1 > capacity * MAX_LOAD) grow();
+
+        final long most = uuid.getMostSignificantBits(), least = uuid.getLeastSignificantBits();
+        for (int i = slot(most, least); ; i = (i + 1) & (capacity - 1)) {
+            final int position = HEADER_SIZE + i * SLOT_SIZE;
+            final long slotMost = buffer.getLong(position), slotLeast = buffer.getLong(position + 8);
+            if (slotMost == 0 && slotLeast == 0) {
+                writeSlot(i, most, least, location.segment(), location.length(), location.offset());
+                buffer.putInt(SIZE_POSITION, ++size);
+                return null;
+            }
+            if (slotMost == most && slotLeast == least) {
+                final LogStore.Location previous = new LogStore.Location(buffer.getInt(position + 16), buffer.getLong(position + 24), buffer.getInt(position + 20));
+                writeSlot(i, most, least, location.segment(), location.length(), location.offset());
+                return previous;
+            }
+        }
+    }
+
+    void forEach(@NotNull BiConsumer<UUID, LogStore.Location> action) {
+        for (int i = 0; i < capacity; i++) {
+            final int position = HEADER_SIZE + i * SLOT_SIZE;
+            final long most = buffer.getLong(position), least = buffer.getLong(position + 8);
+            if (most != 0 || least != 0)
+                action.accept(new UUID(most, least), new LogStore.Location(buffer.getInt(position + 16), buffer.getLong(position + 24), buffer.getInt(position + 20)));
+        }
+    }
+
+    /**
+     * Doubles the capacity. Entries are kept in memory while the
+     * file is remapped, if the server crashes meanwhile the index
+     * is not marked clean and will be rebuilt from the segments.
+     */
+    private void grow() throws IOException {
+        final long[] entries = new long[size * 4];
+        final int[] lengths = new int[size];
+        final int[] count = new int[1];
+        forEach((uuid, location) -> {
+            final int i = count[0]++;
+            entries[i * 4] = uuid.getMostSignificantBits();
+            entries[i * 4 + 1] = uuid.getLeastSignificantBits();
+            entries[i * 4 + 2] = location.segment();
+            entries[i * 4 + 3] = location.offset();
+            lengths[i] = location.length();
+        });
+
+        capacity *= 2;
+        map(capacity);
+        clear();
+        for (int i = 0; i < count[0]; i++)
+            put(new UUID(entries[i * 4], entries[i * 4 + 1]), new LogStore.Location((int) entries[i * 4 + 2], entries[i * 4 + 3], lengths[i]));
+    }
+
+    private void writeSlot(int slot, long most, long least, int segment, int length, long offset) {
+        final int position = HEADER_SIZE + slot * SLOT_SIZE;
+        buffer.putLong(position, most);
+        buffer.putLong(position + 8, least);
+        buffer.putInt(position + 16, segment);
+        buffer.putInt(position + 20, length);
+        buffer.putLong(position + 24, offset);
+    }
+
+    private int slot(long most, long least) {
+        long hash = most ^ least;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return (int) hash & (capacity - 1);
+    }
+
+    void close() throws IOException {
+        buffer.force();
+        channel.close();
+        access.close();
+    }
+
+    @NotNull
+    File getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,336 @@
+package com.insurgent.lib.database.log;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured key-value store used to save player data on a single
+ * server without having to manage one file per player.
+ * <p>
+ * Records are appended to segment files. A memory-mapped index stores the
+ * location of the latest record of every player, so reading data only takes
+ * one index lookup and one positional read. Older records become dead and
+ * segments which contain mostly dead records are compacted by copying their
+ * live records to the active segment, then deleting them.
+ * <p>
+ * Every record is stored with a CRC32 checksum. If the server crashes before
+ * the index is closed, the index is rebuilt by scanning the segments, and
+ * any torn record at the end of a segment is discarded.
+ */
+public class LogStore {
+    private final File folder;
+    private final long maxSegmentSize;
+    private final double compactionThreshold;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Integer, FileChannel> segments = new HashMap<>();
+    private final Map<Integer, Long> liveBytes = new HashMap<>();
+    private final LogIndex index;
+
+    private int activeSegment;
+    private FileChannel active;
+    private long activeSize;
+
+    private static final int RECORD_HEADER_SIZE = 24;
+    private static final String SEGMENT_PREFIX = "segment-", SEGMENT_EXTENSION = ".log";
+
+    /**
+     * @param folder              Folder containing segments and index
+     * @param maxSegmentSize      Size in bytes after which a new segment is started
+     * @param compactionThreshold Segments with a smaller ratio of live data are compacted
+     */
+    public LogStore(@NotNull File folder, long maxSegmentSize, double compactionThreshold) throws IOException {
+        this.folder = folder;
+        this.maxSegmentSize = maxSegmentSize;
+        this.compactionThreshold = compactionThreshold;
+        if (!folder.exists()) folder.mkdirs();
+
+        // Open existing segments
+        final @Nullable File[] files = folder.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_EXTENSION));
+        final List<Integer> ids = new ArrayList<>();
+        if (files != null) for (File file : files)
+            ids.add(Integer.parseInt(file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_EXTENSION.length())));
+        Collections.sort(ids);
+        for (int id : ids)
+            segments.put(id, openSegment(id));
+
+        index = new LogIndex(new File(folder, "index.idx"));
+        if (!index.isClean()) rebuildIndex(ids);
+        index.setClean(false);
+
+        // Compute live bytes of every segment
+        index.forEach((uuid, location) -> liveBytes.merge(location.segment(), (long) RECORD_HEADER_SIZE + location.length(), Long::sum));
+
+        activeSegment = ids.isEmpty() ? 0 : ids.get(ids.size() - 1);
+        if (ids.isEmpty()) segments.put(activeSegment, openSegment(activeSegment));
+        active = segments.get(activeSegment);
+        activeSize = active.size();
+    }
+
+    private FileChannel openSegment(int id) throws IOException {
+        return FileChannel.open(new File(folder, SEGMENT_PREFIX + id + SEGMENT_EXTENSION).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Scans all segments in order, later records overriding older ones.
+     * Segments are truncated at the first corrupted record.
+     */
+    private void rebuildIndex(List<Integer> ids) throws IOException {
+        index.clear();
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        for (int id : ids) {
+            final FileChannel channel = segments.get(id);
+            long position = 0;
+            while (position + RECORD_HEADER_SIZE <= channel.size()) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                final int length = header.getInt();
+                final UUID uuid = new UUID(header.getLong(), header.getLong());
+                final int crc = header.getInt();
+                if (length < 0 || position + RECORD_HEADER_SIZE + length > channel.size()) break;
+
+                final ByteBuffer payload = ByteBuffer.allocate(length);
+                channel.read(payload, position + RECORD_HEADER_SIZE);
+                if (checksum(payload.array()) != crc) break;
+
+                index.put(uuid, new Location(id, position, length));
+                position += RECORD_HEADER_SIZE + length;
+            }
+            if (position < channel.size()) channel.truncate(position);
+        }
+    }
+
+    /**
+     * @return Latest data stored for that player, or null if there is none
+     */
+    @Nullable
+    public byte[] read(@NotNull UUID uuid) throws IOException {
+        lock.readLock().lock();
+        try {
+            final @Nullable Location location = index.get(uuid);
+            return location == null ? null : read(location);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private byte[] read(Location location) throws IOException {
+        final ByteBuffer payload = ByteBuffer.allocate(location.length());
+        final FileChannel channel = segments.get(location.segment());
+        while (payload.hasRemaining())
+            if (channel.read(payload, location.offset() + RECORD_HEADER_SIZE + payload.position()) < 0)
+                throw new IOException("Unexpected end of segment " + location.segment());
+        return payload.array();
+    }
+
+    public boolean contains(@NotNull UUID uuid) {
+        lock.readLock().lock();
+        try {
+            return index.get(uuid) != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a new record for that player, which replaces the previous one.
+     */
+    public void write(@NotNull UUID uuid, byte[] data) throws IOException {
+        lock.writeLock().lock();
+        try {
+            append(uuid, data);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void append(UUID uuid, byte[] data) throws IOException {
+        if (activeSize >= maxSegmentSize) {
+            active.force(false);
+            activeSegment++;
+            active = openSegment(activeSegment);
+            segments.put(activeSegment, active);
+            activeSize = 0;
+        }
+
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + data.length);
+        record.putInt(data.length);
+        record.putLong(uuid.getMostSignificantBits());
+        record.putLong(uuid.getLeastSignificantBits());
+        record.putInt(checksum(data));
+        record.put(data);
+        record.flip();
+
+        final long offset = activeSize;
+        while (record.hasRemaining())
+            active.write(record, offset + record.position());
+        activeSize += RECORD_HEADER_SIZE + data.length;
+
+        final @Nullable Location previous = index.put(uuid, new Location(activeSegment, offset, data.length));
+        if (previous != null) liveBytes.merge(previous.segment(), -(long) (RECORD_HEADER_SIZE + previous.length()), Long::sum);
+        liveBytes.merge(activeSegment, (long) RECORD_HEADER_SIZE + data.length, Long::sum);
+    }
+
+    /**
+     * Makes sure every written record is stored on disk.
+     */
+    public void flush() throws IOException {
+        lock.readLock().lock();
+        try {
+            active.force(false);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the latest data of every player. Data is read one player at a
+     * time so this does not block writes for the whole scan.
+     *
+     * @param action Called with the data of every player
+     */
+    public void forEach(@NotNull BiConsumer<UUID, byte[]> action) throws IOException {
+        for (UUID uuid : getStored()) {
+            final @Nullable byte[] data = read(uuid);
+            if (data != null) action.accept(uuid, data);
+        }
+    }
+
+    /**
+     * @return Unique ids of all the players with stored data
+     */
+    @NotNull
+    public List<UUID> getStored() {
+        lock.readLock().lock();
+        try {
+            final List<UUID> stored = new ArrayList<>(index.size());
+            index.forEach((uuid, location) -> stored.add(uuid));
+            return stored;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return If some segments contain enough dead records to be compacted
+     */
+    public boolean needsCompaction() {
+        lock.readLock().lock();
+        try {
+            return !getCompactable().isEmpty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Integer> getCompactable() {
+        final List<Integer> compactable = new ArrayList<>();
+        for (Map.Entry<Integer, FileChannel> entry : segments.entrySet())
+            try {
+                final long size = entry.getValue().size();
+                if (entry.getKey() != activeSegment && size > 0 && liveBytes.getOrDefault(entry.getKey(), 0L) < size * compactionThreshold)
+                    compactable.add(entry.getKey());
+            } catch (IOException exception) {
+                exception.printStackTrace();
+            }
+        return compactable;
+    }
+
+    /**
+     * Copies live records of segments which mostly contain dead records
+     * to the active segment, then deletes these segments. Reads and writes
+     * can still happen meanwhile, records are copied one at a time.
+     *
+     * @return Amount of deleted segments
+     */
+    public int compact() throws IOException {
+        final List<Integer> compactable;
+        lock.readLock().lock();
+        try {
+            compactable = getCompactable();
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        int deleted = 0;
+        for (int segment : compactable) {
+            // Find live records
+            final Map<UUID, Location> live = new HashMap<>();
+            lock.readLock().lock();
+            try {
+                index.forEach((uuid, location) -> {
+                    if (location.segment() == segment) live.put(uuid, location);
+                });
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            // Copy them unless they were written again meanwhile
+            for (Map.Entry<UUID, Location> entry : live.entrySet()) {
+                lock.writeLock().lock();
+                try {
+                    if (entry.getValue().equals(index.get(entry.getKey())))
+                        append(entry.getKey(), read(entry.getValue()));
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+
+            // Delete segment
+            lock.writeLock().lock();
+            try {
+                if (liveBytes.getOrDefault(segment, 0L) > 0) continue;
+                active.force(false);
+                segments.remove(segment).close();
+                liveBytes.remove(segment);
+                new File(folder, SEGMENT_PREFIX + segment + SEGMENT_EXTENSION).delete();
+                deleted++;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return deleted;
+    }
+
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (FileChannel channel : segments.values()) {
+                channel.force(true);
+                channel.close();
+            }
+            index.setClean(true);
+            index.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static int checksum(byte[] data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Location of a record inside of the log segments
+     *
+     * @param segment Segment id
+     * @param offset  Record position inside of the segment
+     * @param length  Length of the record data
+     */
+    record Location(int segment, long offset, int length) {
+    }
+}
@@ -0,0 +1,187 @@
+package com.insurgent.lib.database.log;
+
+import cn.nukkit.plugin.Plugin;
+import cn.nukkit.utils.LogLevel;
+import com.insurgent.lib.WyndoriaLib;
+import com.insurgent.lib.api.player.RPGPlayerData;
+import com.insurgent.lib.database.OfflineDataHolder;
+import com.insurgent.lib.database.SynchronizedDataHolder;
+import com.insurgent.lib.database.binary.BinarySynchronizedDataHandler;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Stores player data in a {@link LogStore} instead of one file per player,
+ * which scales much better on single servers with a large player base.
+ * Player data is serialized the same way as {@link BinarySynchronizedDataHandler},
+ * and YAML data can be converted using {@link #migrateFromYAML}.
+ */
+public abstract class LogSynchronizedDataHandler<H extends SynchronizedDataHolder, O extends OfflineDataHolder> extends BinarySynchronizedDataHandler<H, O> {
+    private final File storeFolder;
+    private final long maxSegmentSize;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    @Nullable
+    private LogStore store;
+
+    private static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final double COMPACTION_THRESHOLD = .5;
+
+    public LogSynchronizedDataHandler(Plugin owning, boolean compress) {
+        this(owning, compress, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param owning         Plugin owning the data
+     * @param compress       If records should be compressed
+     * @param maxSegmentSize Size in bytes after which a new segment is started
+     */
+    public LogSynchronizedDataHandler(Plugin owning, boolean compress, long maxSegmentSize) {
+        super(owning, compress);
+
+        this.storeFolder = new File(owning.getDataFolder(), "userdata-log");
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    @Override
+    public String getBackend() {
+        return "log";
+    }
+
+    @Override
+    public void setup() {
+        getStore();
+    }
+
+    @NotNull
+    public synchronized LogStore getStore() {
+        if (store == null) try {
+            store = new LogStore(storeFolder, maxSegmentSize, COMPACTION_THRESHOLD);
+        } catch (IOException exception) {
+            throw new IllegalStateException("Could not open player data store", exception);
+        }
+        return store;
+    }
+
+    @Override
+    public void saveData(H playerData, boolean autosave) {
+        super.saveData(playerData, autosave);
+        flush();
+    }
+
+    /**
+     * Records are all appended before flushing the store once. If the
+     * store cannot be flushed, none of the player datas is considered saved.
+     */
+    @Override
+    public Set<UUID> saveAll(Collection<H> playerData, boolean autosave) {
+        final Set<UUID> saved = new HashSet<>();
+        for (H holder : playerData)
+            try {
+                super.saveData(holder, autosave);
+                saved.add(holder.getUniqueId());
+            } catch (RuntimeException exception) {
+                getOwning().getLogger().log(LogLevel.WARNING, "Could not save data of '" + holder.getUniqueId() + "':");
+                exception.printStackTrace();
+            }
+
+        try {
+            flush();
+        } catch (UncheckedIOException exception) {
+            getOwning().getLogger().log(LogLevel.WARNING, "Could not save data of " + playerData.size() + " players:");
+            exception.printStackTrace();
+            return Collections.emptySet();
+        }
+        return saved;
+    }
+
+    @Override
+    protected void writeFile(H playerData) throws IOException {
+        getStore().write(playerData.getUniqueId(), encode(playerData));
+    }
+
+    @Override
+    protected void readFile(H playerData) throws IOException {
+        final @Nullable byte[] content = getStore().read(playerData.getUniqueId());
+        if (content == null) loadEmptyData(playerData);
+        else decode(playerData, content);
+    }
+
+    @Override
+    protected boolean hasData(UUID uuid) {
+        return getStore().contains(uuid);
+    }
+
+    /**
+     * Loads the data of every stored player, one at a time. This is
+     * mostly useful for leaderboards and other statistics.
+     *
+     * @param holderFactory Creates empty player data, typically <code>manager::newPlayerData</code>
+     * @param action        Called with the data of every player
+     */
+    public void forEachStored(@NotNull Function<RPGPlayerData, H> holderFactory, @NotNull Consumer<H> action) throws IOException {
+        getStore().forEach((uuid, content) -> {
+            final H holder = holderFactory.apply(new RPGPlayerData(uuid));
+            try {
+                decode(holder, content);
+                action.accept(holder);
+            } catch (IOException exception) {
+                getOwning().getLogger().log(LogLevel.WARNING, "Could not read data of '" + uuid + "':");
+                exception.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * @throws UncheckedIOException If the store could not be flushed
+     */
+    private void flush() {
+        try {
+            getStore().flush();
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Could not flush player data store", exception);
+        }
+
+        // Compact segments in the background
+        if (getStore().needsCompaction() && compacting.compareAndSet(false, true))
+            try {
+                CompletableFuture.runAsync(() -> {
+                    try {
+                        getStore().compact();
+                    } catch (IOException exception) {
+                        getOwning().getLogger().log(LogLevel.WARNING, "Could not compact player data store:");
+                        exception.printStackTrace();
+                    } finally {
+                        compacting.set(false);
+                    }
+                }, WyndoriaLib.instance.getDataExecutor());
+            } catch (RejectedExecutionException exception) {
+                compacting.set(false);
+            }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (store != null) try {
+            store.close();
+            store = null;
+        } catch (IOException exception) {
+            getOwning().getLogger().log(LogLevel.WARNING, "Could not close player data store:");
+            exception.printStackTrace();
+        }
+    }
+}
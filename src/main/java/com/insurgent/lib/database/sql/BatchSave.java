@@ -0,0 +1,32 @@
+package com.insurgent.lib.database.sql;
+
+import com.insurgent.lib.database.SynchronizedDataHolder;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Statement used to save many player datas in a single JDBC batch.
+ *
+ * @see SQLSynchronizedDataHandler#getBatchSave()
+ */
+public interface BatchSave<H extends SynchronizedDataHolder> {
+
+    /**
+     * This is typically an upsert which also sets 'is_saved'. Autosaves
+     * must keep 'is_saved' at 0 as the data is still in use, only the
+     * final save of a player logging off sets it back to 1.
+     *
+     * @return Statement saving one player data
+     */
+    public String getStatement();
+
+    /**
+     * Binds the parameters of {@link #getStatement()} for one player data.
+     *
+     * @param statement  Batch statement
+     * @param playerData Player data being saved
+     * @param autosave   If this is an autosave, in which case 'is_saved' must stay at 0
+     */
+    public void bind(PreparedStatement statement, H playerData, boolean autosave) throws SQLException;
+}
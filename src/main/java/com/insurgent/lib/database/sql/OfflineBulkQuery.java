@@ -0,0 +1,28 @@
+package com.insurgent.lib.database.sql;
+
+import com.insurgent.lib.database.OfflineDataHolder;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Query used to load the offline data of several players at once.
+ *
+ * @see SQLSynchronizedDataHandler#getOfflineBulkQuery()
+ */
+public interface OfflineBulkQuery<O extends OfflineDataHolder> {
+
+    /**
+     * The '%s' token is replaced by one placeholder per player. For instance:
+     * <code>SELECT `uuid`, `friends` FROM `mmocore_playerdata` WHERE `uuid` IN (%s);</code>
+     *
+     * @return Query selecting the rows of the given players
+     */
+    public String getStatement();
+
+    /**
+     * @param result Current row
+     * @return Offline data of that row
+     */
+    public O load(ResultSet result) throws SQLException;
+}
@@ -0,0 +1,15 @@
+package com.insurgent.lib.database.sql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads the result of a named query, see {@link SQLDataSource#query(String, ResultMapper, Object...)}.
+ *
+ * @param <T> Type of the value read from the result set
+ */
+@FunctionalInterface
+public interface ResultMapper<T> {
+
+    public T map(ResultSet result) throws SQLException;
+}
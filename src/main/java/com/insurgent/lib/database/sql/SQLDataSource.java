@@ -4,50 +4,302 @@ import cn.nukkit.plugin.PluginBase;
 import cn.nukkit.utils.ConfigSection;
 import cn.nukkit.utils.LogLevel;
 import com.insurgent.lib.WyndoriaLib;
+import com.insurgent.lib.database.handoff.SaveNotifier;
+import com.insurgent.lib.metrics.DataMetrics;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
+/**
+ * Routes queries between two connection pools: the primary pool, used for
+ * writes, claims and every read which must see the latest data, and an
+ * optional read pool used by reads which can tolerate slightly stale data,
+ * such as offline data lookups and leaderboards. The read pool can point to
+ * a replica or simply be a separate pool on the same database, so that heavy
+ * reads never hold the connections needed by logins and server transfers.
+ * <p>
+ * The read pool is configured by the 'read' subsection of the 'mysql'
+ * section, any option not provided there being copied from the primary pool.
+ * Without it, every route uses the primary pool. Its 'max-lag' option is the
+ * delay after which writes are assumed to be visible from the read pool.
+ * <p>
+ * Loading player data always uses the primary pool, as the claim on
+ * 'is_saved' and the row read afterwards must see the latest save.
+ */
 public class SQLDataSource {
     private final PluginBase plugin;
     private final HikariDataSource dataSource;
 
+    @Nullable
+    private final HikariDataSource readSource;
+
+    /**
+     * Named queries, defined once and then executed by name
+     */
+    private final Map<String, String> queries = new ConcurrentHashMap<>();
+
+    @Nullable
+    private SaveNotifier saveNotifier;
+
+    /**
+     * Delay in milliseconds after which data written to the primary pool
+     * is assumed to be visible from the read pool
+     */
+    private volatile long readMaxLag = DEFAULT_READ_MAX_LAG;
+
+    private static final long DEFAULT_READ_MAX_LAG = 10000;
+
     public SQLDataSource(PluginBase plugin) {
+        this(plugin, createConfig(plugin.getConfig().getSection("mysql")), createReadConfig(plugin.getConfig().getSection("mysql")));
+        setReadMaxLag(plugin.getConfig().getLong("mysql.read.max-lag", DEFAULT_READ_MAX_LAG));
+    }
+
+    /**
+     * Creates a data source from a custom Hikari config, for instance
+     * to connect to an embedded database.
+     *
+     * @param plugin Plugin owning the data source
+     * @param hikari Pool configuration
+     */
+    public SQLDataSource(PluginBase plugin, HikariConfig hikari) {
+        this(plugin, hikari, null);
+    }
+
+    /**
+     * @param plugin Plugin owning the data source
+     * @param hikari Primary pool configuration
+     * @param read   Read pool configuration, or null to read from the primary pool
+     */
+    public SQLDataSource(PluginBase plugin, HikariConfig hikari, @Nullable HikariConfig read) {
         this.plugin = plugin;
 
-        // Prepare Hikari Config
-        final ConfigSection config = plugin.getConfig().getSection("mysql");
+        dataSource = new HikariDataSource(hikari);
+        readSource = read == null ? null : new HikariDataSource(read);
+        WyndoriaLib.instance.getDataExecutor().ensureCapacity(hikari.getMaximumPoolSize() + (read == null ? 0 : read.getMaximumPoolSize()));
+        registerGauges("pool", dataSource);
+        if (readSource != null) registerGauges("pool.read", readSource);
+    }
+
+    /**
+     * Reads the pool configuration from a config section. The JDBC url is
+     * built from the host, port and database unless 'url' is provided.
+     *
+     * @param config Usually the 'mysql' section of the plugin config
+     * @return Pool configuration
+     */
+    public static HikariConfig createConfig(ConfigSection config) {
         final HikariConfig hikari = new HikariConfig();
         hikari.setPoolName("MMO-hikari");
-        hikari.setJdbcUrl("jdbc:mysql://" + config.getString("host", "localhost") + ":" + config.getString("port", "3306") + "/" + config.getString("database", "minecraft"));
+        hikari.setJdbcUrl(config.exists("url") ? config.getString("url") : "jdbc:mysql://" + config.getString("host", "localhost") + ":" + config.getString("port", "3306") + "/" + config.getString("database", "minecraft"));
         hikari.setUsername(config.getString("user", "root"));
         hikari.setPassword(config.getString("pass", ""));
         hikari.setMaximumPoolSize(config.getInt("maxPoolSize", 10));
         hikari.setMaxLifetime(config.getLong("maxLifeTime", 300000));
         hikari.setConnectionTimeout(config.getLong("connectionTimeOut", 10000));
         hikari.setLeakDetectionThreshold(config.getLong("leakDetectionThreshold", 150000));
+
+        // Let the MySQL driver cache prepared statements of every connection, can be overridden in properties.
+        // Other drivers reject these properties when the pool is initialized
+        if (hikari.getJdbcUrl().startsWith("jdbc:mysql:")) {
+            hikari.addDataSourceProperty("cachePrepStmts", "true");
+            hikari.addDataSourceProperty("prepStmtCacheSize", "250");
+            hikari.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+            hikari.addDataSourceProperty("useServerPrepStmts", "true");
+        }
         if (config.exists("properties")) {
             ConfigSection properties = config.getSection("properties");
             for (String s : properties.getKeys(false)) {
                 hikari.addDataSourceProperty(s, config.getString("properties." + s));
             }
         }
+        return hikari;
+    }
 
-        dataSource = new HikariDataSource(hikari);
+    /**
+     * Reads the read pool configuration from the 'read' subsection of a
+     * config section. Options missing from the subsection are copied from
+     * the section itself, so a read pool on the same database only needs
+     * its own 'maxPoolSize'.
+     *
+     * @param config Usually the 'mysql' section of the plugin config
+     * @return Read pool configuration, or null if there is no 'read' subsection
+     */
+    @Nullable
+    public static HikariConfig createReadConfig(ConfigSection config) {
+        if (!config.isSection("read")) return null;
+
+        final ConfigSection merged = new ConfigSection();
+        merged.putAll(config);
+        merged.remove("read");
+        merged.putAll(config.getSection("read"));
+
+        // The primary url would otherwise override the host of the replica
+        if (!config.getSection("read").exists("url") && config.getSection("read").exists("host")) merged.remove("url");
+        final HikariConfig hikari = createConfig(merged);
+        hikari.setPoolName("MMO-hikari-read");
+        return hikari;
+    }
+
+    private void registerGauges(String prefix, HikariDataSource source) {
+        final DataMetrics metrics = WyndoriaLib.instance.getMetrics();
+        metrics.registerGauge(prefix + ".active[" + plugin.getName() + "]", () -> source.getHikariPoolMXBean().getActiveConnections());
+        metrics.registerGauge(prefix + ".idle[" + plugin.getName() + "]", () -> source.getHikariPoolMXBean().getIdleConnections());
+        metrics.registerGauge(prefix + ".pending[" + plugin.getName() + "]", () -> source.getHikariPoolMXBean().getThreadsAwaitingConnection());
+        metrics.registerGauge(prefix + ".total[" + plugin.getName() + "]", () -> source.getHikariPoolMXBean().getTotalConnections());
     }
 
     public PluginBase getPlugin() {
         return plugin;
     }
 
+    /**
+     * Channel used by handlers of this data source to notify other servers
+     * when player data is saved. Notifications go through a table of the
+     * database unless another channel is set.
+     */
+    @NotNull
+    public synchronized SaveNotifier getSaveNotifier() {
+        if (saveNotifier == null) saveNotifier = new SQLSaveNotifier(this);
+        return saveNotifier;
+    }
+
+    public synchronized void setSaveNotifier(@NotNull SaveNotifier saveNotifier) {
+        if (this.saveNotifier != null) this.saveNotifier.close();
+        this.saveNotifier = Objects.requireNonNull(saveNotifier, "Save notifier cannot be null");
+    }
+
+    /**
+     * Defines a query which can then be executed using its name. As parameters are
+     * bound instead of being concatenated, the same statement is reused by the
+     * driver statement cache every time it is executed.
+     *
+     * @param name Unique query name
+     * @param sql  Query with '?' parameters
+     */
+    public void registerQuery(@NotNull String name, @NotNull String sql) {
+        queries.put(Objects.requireNonNull(name, "Name cannot be null"), Objects.requireNonNull(sql, "Query cannot be null"));
+    }
+
+    public boolean hasQuery(@NotNull String name) {
+        return queries.containsKey(name);
+    }
+
+    @NotNull
+    public String getQuery(@NotNull String name) {
+        return Objects.requireNonNull(queries.get(name), "No query registered with name '" + name + "'");
+    }
+
+    /**
+     * Executes a named query on the given connection.
+     *
+     * @param connection Connection to use
+     * @param name       Name of the query
+     * @param mapper     Reads the result set
+     * @param parameters Query parameters
+     * @return Value read from the result set
+     */
+    public <T> T query(@NotNull Connection connection, @NotNull String name, @NotNull ResultMapper<T> mapper, Object... parameters) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(getQuery(name))) {
+            bind(statement, parameters);
+            try (ResultSet result = statement.executeQuery()) {
+                return mapper.map(result);
+            }
+        }
+    }
+
+    /**
+     * Executes a named update on the given connection.
+     *
+     * @return Amount of updated rows
+     */
+    public int update(@NotNull Connection connection, @NotNull String name, Object... parameters) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(getQuery(name))) {
+            bind(statement, parameters);
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Executes a named query on the primary pool.
+     */
+    public <T> T query(@NotNull String name, @NotNull ResultMapper<T> mapper, Object... parameters) throws SQLException {
+        return query(Route.PRIMARY, name, mapper, parameters);
+    }
+
+    /**
+     * Executes a named query on the pool of the given route.
+     */
+    public <T> T query(@NotNull Route route, @NotNull String name, @NotNull ResultMapper<T> mapper, Object... parameters) throws SQLException {
+        try (Connection connection = connect(route)) {
+            return query(connection, name, mapper, parameters);
+        }
+    }
+
+    public int update(@NotNull String name, Object... parameters) throws SQLException {
+        try (Connection connection = connect(Route.PRIMARY)) {
+            return update(connection, name, parameters);
+        }
+    }
+
+    /**
+     * @return Future completed with the value read from the result set, or
+     *         completed exceptionally if the query could not be executed
+     */
+    public <T> CompletableFuture<T> queryAsync(@NotNull String name, @NotNull ResultMapper<T> mapper, Object... parameters) {
+        return queryAsync(Route.PRIMARY, name, mapper, parameters);
+    }
+
+    public <T> CompletableFuture<T> queryAsync(@NotNull Route route, @NotNull String name, @NotNull ResultMapper<T> mapper, Object... parameters) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return query(route, name, mapper, parameters);
+            } catch (SQLException exception) {
+                throw new CompletionException(exception);
+            }
+        }, WyndoriaLib.instance.getDataExecutor());
+    }
+
+    /**
+     * @return Future completed with the amount of updated rows, or
+     *         completed exceptionally if the update could not be executed
+     */
+    public CompletableFuture<Integer> updateAsync(@NotNull String name, Object... parameters) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return update(name, parameters);
+            } catch (SQLException exception) {
+                throw new CompletionException(exception);
+            }
+        }, WyndoriaLib.instance.getDataExecutor());
+    }
+
+    private static void bind(PreparedStatement statement, Object[] parameters) throws SQLException {
+        for (int i = 0; i < parameters.length; i++) {
+            final Object parameter = parameters[i];
+            if (parameter instanceof UUID) statement.setString(i + 1, parameter.toString());
+            else statement.setObject(i + 1, parameter);
+        }
+    }
+
     public void getResult(String sql, Consumer<ResultSet> supplier) {
-        execute(connection -> {
+        getResult(Route.PRIMARY, sql, supplier);
+    }
+
+    public void getResult(Route route, String sql, Consumer<ResultSet> supplier) {
+        execute(route, connection -> {
             PreparedStatement statement = null;
             try {
                 statement = connection.prepareStatement(sql);
@@ -68,7 +320,11 @@ public class SQLDataSource {
     }
 
     public CompletableFuture<Void> getResultAsync(String sql, Consumer<ResultSet> supplier) {
-        return CompletableFuture.runAsync(() -> getResult(sql, supplier));
+        return getResultAsync(Route.PRIMARY, sql, supplier);
+    }
+
+    public CompletableFuture<Void> getResultAsync(Route route, String sql, Consumer<ResultSet> supplier) {
+        return CompletableFuture.runAsync(() -> getResult(route, sql, supplier), WyndoriaLib.instance.getDataExecutor());
     }
 
     public void executeUpdate(String sql) {
@@ -89,13 +345,17 @@ public class SQLDataSource {
     }
 
     public CompletableFuture<Void> executeUpdateAsync(String sql) {
-        return CompletableFuture.runAsync(() -> executeUpdate(sql));
+        return CompletableFuture.runAsync(() -> executeUpdate(sql), WyndoriaLib.instance.getDataExecutor());
     }
 
     public void execute(Consumer<Connection> execute) {
+        execute(Route.PRIMARY, execute);
+    }
+
+    public void execute(Route route, Consumer<Connection> execute) {
         Connection connection = null;
         try {
-            connection = dataSource.getConnection();
+            connection = connect(route);
             execute.accept(connection);
         } catch (SQLException e) {
             WyndoriaLib.instance.getLogger().log(LogLevel.WARNING, "Could not open SQL connection: ");
@@ -112,15 +372,76 @@ public class SQLDataSource {
     }
 
     public CompletableFuture<Void> executeAsync(Consumer<Connection> execute) {
-        return CompletableFuture.runAsync(() -> execute(execute));
+        return executeAsync(Route.PRIMARY, execute);
+    }
+
+    public CompletableFuture<Void> executeAsync(Route route, Consumer<Connection> execute) {
+        return CompletableFuture.runAsync(() -> execute(route, execute), WyndoriaLib.instance.getDataExecutor());
     }
 
     public Connection getConnection() throws Exception {
-        return dataSource.getConnection();
+        return connect(Route.PRIMARY);
+    }
+
+    public Connection getConnection(Route route) throws Exception {
+        return connect(route);
+    }
+
+    /**
+     * @return If reads routed to {@link Route#READ} use a separate pool
+     */
+    public boolean hasReadPool() {
+        return readSource != null;
+    }
+
+    private Connection connect(Route route) throws SQLException {
+        return (route == Route.READ && readSource != null ? readSource : dataSource).getConnection();
+    }
+
+    /**
+     * Reads which must see a recent write use the primary pool until that
+     * delay has passed, see {@link SQLSynchronizedDataHandler#getOfflineAll(java.util.Collection)}
+     *
+     * @param readMaxLag Delay in milliseconds after which writes are visible from the read pool
+     */
+    public void setReadMaxLag(long readMaxLag) {
+        this.readMaxLag = Math.max(0, readMaxLag);
+    }
+
+    public long getReadMaxLag() {
+        return readMaxLag;
     }
 
     public void close() {
+        for (String gauge : new String[]{"active", "idle", "pending", "total"}) {
+            WyndoriaLib.instance.getMetrics().unregisterGauge("pool." + gauge + "[" + plugin.getName() + "]");
+            WyndoriaLib.instance.getMetrics().unregisterGauge("pool.read." + gauge + "[" + plugin.getName() + "]");
+        }
+        synchronized (this) {
+            if (saveNotifier != null) saveNotifier.close();
+        }
         if (dataSource != null)
             dataSource.close();
+        if (readSource != null)
+            readSource.close();
+    }
+
+    /**
+     * Pool used by a query.
+     */
+    public enum Route {
+
+        /**
+         * Writes, claims and reads which must see the latest data,
+         * for instance every query made while loading player data
+         */
+        PRIMARY,
+
+        /**
+         * Reads which can tolerate slightly stale data, for instance
+         * offline data lookups, leaderboards and bulk scans. Uses the
+         * primary pool when no read pool is configured.
+         */
+        READ
     }
 }
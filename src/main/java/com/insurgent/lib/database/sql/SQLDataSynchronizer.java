@@ -3,7 +3,15 @@ package com.insurgent.lib.database.sql;
 import cn.nukkit.utils.LogLevel;
 import com.insurgent.lib.UtilityMethods;
 import com.insurgent.lib.WyndoriaLib;
+import com.insurgent.lib.database.LoadScheduler;
 import com.insurgent.lib.database.SynchronizedDataHolder;
+import com.insurgent.lib.database.codec.BinaryCodec;
+import com.insurgent.lib.database.handoff.HandoffCache;
+import com.insurgent.lib.database.handoff.SaveNotifier;
+import com.insurgent.lib.metrics.DataMetrics;
+import com.insurgent.lib.trace.Span;
+import com.insurgent.lib.trace.Tracer;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
@@ -11,15 +19,53 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class SQLDataSynchronizer<H extends SynchronizedDataHolder> {
     private final SQLDataSource dataSource;
     private final H data;
     private final String tableName, uuidFieldName;
     private final long start = System.currentTimeMillis();
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
 
     private int tries;
 
+    /**
+     * Set once a try found the row of the player. Rows are never removed,
+     * so later tries only need to claim it.
+     */
+    private boolean rowExists;
+
+    /**
+     * Time at which the first try found data still being saved, or 0
+     */
+    private long waitingSince;
+
+    @Nullable
+    private HandoffCache handoffCache;
+    @Nullable
+    private String handoffNamespace;
+    @Nullable
+    private BinaryCodec<H> snapshotCodec;
+    @Nullable
+    private SaveNotifier saveNotifier;
+
+    /**
+     * Slot of the load scheduler, released while waiting between tries
+     */
+    @Nullable
+    private LoadScheduler.Admission admission;
+
     public SQLDataSynchronizer(String tableName, String uuidFieldName, SQLDataSource dataSource, H data) {
         this.tableName = tableName;
         this.uuidFieldName = uuidFieldName;
@@ -31,12 +77,132 @@ public abstract class SQLDataSynchronizer<H extends SynchronizedDataHolder> {
         return data;
     }
 
+    /**
+     * Reads the snapshot written by the previous server, if any, instead
+     * of reading the data from the database. Must be called before
+     * {@link #synchronize()}. Snapshots are removed once the data is
+     * claimed even when they are not read.
+     *
+     * @param cache     Handoff cache shared by all servers
+     * @param namespace Key under which snapshots are stored
+     * @param codec     Codec used to read snapshots, or null to only remove them
+     */
+    public void useHandoffCache(@NotNull HandoffCache cache, @NotNull String namespace, @Nullable BinaryCodec<H> codec) {
+        this.handoffCache = cache;
+        this.handoffNamespace = namespace;
+        this.snapshotCodec = codec;
+    }
+
+    /**
+     * Retries as soon as the previous server notifies that the data was saved.
+     * Tries are still scheduled with the usual backoff in case a notification
+     * is missed. Must be called before {@link #synchronize()}.
+     *
+     * @param notifier  Channel shared by all servers
+     * @param namespace Key under which notifications are sent
+     */
+    public void useSaveNotifier(@NotNull SaveNotifier notifier, @NotNull String namespace) {
+        this.saveNotifier = notifier;
+        this.handoffNamespace = namespace;
+    }
+
+    /**
+     * Delay before the first retry, doubled after every unsuccessful
+     * try until it reaches {@link #PERIOD}.
+     */
+    private static final int INITIAL_DELAY = 1000;
     private static final int PERIOD = 10000;
+    private static final double JITTER = .2;
+
+    private static final String BACKEND = "sql";
+
+    private static DataMetrics metrics() {
+        return WyndoriaLib.instance.getMetrics();
+    }
+
+    /**
+     * Names of the queries used by synchronizers, per table, unique id column
+     * and selected columns. They are registered on the data source the first
+     * time they are used.
+     */
+    private static final Map<QueriesKey, Queries> QUERIES = new ConcurrentHashMap<>();
+    private static final AtomicInteger QUERIES_ID = new AtomicInteger();
+
+    private record QueriesKey(String tableName, String uuidFieldName, @Nullable List<String> columns) {
+    }
+
+    private record Queries(String claim, String forceClaim, String select, String create, String confirm, String release) {
+    }
+
+    private Queries queries() {
+        final @Nullable List<String> columns = getSelectedColumns();
+        final Queries queries = QUERIES.computeIfAbsent(new QueriesKey(tableName, uuidFieldName, columns == null ? null : List.copyOf(columns)), unused -> {
+            final String suffix = tableName + "_" + QUERIES_ID.getAndIncrement();
+            return new Queries("sync_claim_" + suffix, "sync_force_claim_" + suffix, "sync_select_" + suffix,
+                    "sync_create_" + suffix, "sync_confirm_" + suffix, "sync_release_" + suffix);
+        });
+        if (!dataSource.hasQuery(queries.select())) {
+            final String selected = columns == null ? "*" : "`" + String.join("`, `", columns) + "`";
+            dataSource.registerQuery(queries.claim(), "UPDATE `" + tableName + "` SET `is_saved` = 0 WHERE `" + uuidFieldName + "` = ? AND `is_saved` = 1;");
+            dataSource.registerQuery(queries.forceClaim(), "UPDATE `" + tableName + "` SET `is_saved` = 0 WHERE `" + uuidFieldName + "` = ?;");
+            dataSource.registerQuery(queries.create(), "INSERT IGNORE INTO `" + tableName + "` (`" + uuidFieldName + "`, `is_saved`) VALUES (?, 0);");
+            dataSource.registerQuery(queries.confirm(), "INSERT INTO " + tableName + "(`uuid`, `is_saved`) VALUES(?, 0) ON DUPLICATE KEY UPDATE `is_saved` = 0;");
+            dataSource.registerQuery(queries.release(), "UPDATE `" + tableName + "` SET `is_saved` = 1 WHERE `" + uuidFieldName + "` = ?;");
+            dataSource.registerQuery(queries.select(), "SELECT " + selected + " FROM `" + tableName + "` WHERE `" + uuidFieldName + "` = ?;");
+        }
+        return queries;
+    }
+
+    /**
+     * Columns read by {@link #loadData(ResultSet)}. Selecting only the
+     * columns which are actually used reduces the amount of data sent
+     * by the database. Synchronizers of a same table may select
+     * different columns.
+     *
+     * @return Selected columns, or null to select all of them
+     */
+    @Nullable
+    public List<String> getSelectedColumns() {
+        return null;
+    }
+
+    /**
+     * Starts the synchronization of the player data. When 'is_saved' is still
+     * set to 0, which means that another server has not finished saving the data
+     * yet, another try is scheduled later on instead of blocking the current thread.
+     * <p>
+     * When started by the load scheduler, the slot of the load is given back while
+     * waiting, so that loads waiting for another server do not prevent other
+     * players from loading.
+     *
+     * @return Future completed once the data has been loaded, or completed
+     *         exceptionally if the data could not be loaded at all.
+     */
+    public CompletableFuture<Void> synchronize() {
+        if (tries == 0) {
+            admission = WyndoriaLib.instance.getLoadScheduler().current();
+            submit();
+        }
+        return future;
+    }
+
+    private void submit() {
+        try {
+            WyndoriaLib.instance.getDataExecutor().execute(this::tryLoad);
+        } catch (RejectedExecutionException exception) {
+            dataSource.getPlugin().getLogger().log(LogLevel.WARNING, "Could not schedule data retrieval of '" + data.getUniqueId() + "': " + exception.getMessage());
+            future.completeExceptionally(exception);
+        }
+    }
+
+    private void tryLoad() {
+        final Span span = Tracer.span(dataSource.getPlugin(), "load", data.getUniqueId());
+        span.mark(tries == 0 ? "executor" : "retry-wait");
 
-    public void synchronize() {
         // Cancel is player is offline
         if (!data.getRPGPlayerData().isOnline()) {
-            UtilityMethods.debug(dataSource.getPlugin(), "SQL", "Stopped data retrieval for `" + data.getUniqueId() + "` as they went offline");
+            UtilityMethods.debug(dataSource.getPlugin(), "SQL", () -> "Stopped data retrieval for `" + data.getUniqueId() + "` as they went offline");
+            future.completeExceptionally(new CancellationException("Player went offline"));
             return;
         }
 
@@ -48,37 +214,69 @@ public abstract class SQLDataSynchronizer<H extends SynchronizedDataHolder> {
         @Nullable ResultSet result = null;
         boolean retry = false;
 
+        // Listen before checking 'is_saved' so that no notification is missed
+        final @Nullable CompletableFuture<Void> saved = saveNotifier == null ? null : saveNotifier.awaitSaved(handoffNamespace, data.getUniqueId());
+
         try {
             connection = dataSource.getConnection();
-            prepare = connection.prepareStatement("SELECT * FROM `" + tableName + "` WHERE `" + uuidFieldName + "` = ?;");
-            prepare.setString(1, data.getUniqueId().toString());
+            span.mark("connection");
+            final Queries queries = queries();
+            final boolean force = tries > WyndoriaLib.instance.getConfigManager().maxSyncTries;
+            if (force) metrics().increment(DataMetrics.SYNC_TIMEOUTS, dataSource.getPlugin().getName(), BACKEND);
 
-            UtilityMethods.debug(dataSource.getPlugin(), "SQL", "Trying to load data of " + data.getUniqueId());
-            result = prepare.executeQuery();
+            UtilityMethods.debug(dataSource.getPlugin(), "SQL", () -> "Trying to load data of " + data.getUniqueId());
 
-            // Load data if found
-            if (result.next()) {
-                if (tries > WyndoriaLib.instance.getConfigManager().maxSyncTries || result.getInt("is_saved") == 1) {
-                    confirmReception(connection);
+            // Claim data first, only one server can switch 'is_saved' from 1 to 0. Reading
+            // the claimed row takes a second round trip as MySQL cannot return updated rows,
+            // and locking the row with SELECT ... FOR UPDATE would need a third one to commit
+            final boolean claimed = dataSource.update(connection, force ? queries.forceClaim() : queries.claim(), data.getUniqueId()) > 0;
+            span.mark("claim");
+
+            // Snapshot was written right before the final save of the previous server and
+            // every other save discards it, so it is up to date unless data was forced
+            if (claimed && !force && loadSnapshot()) {
+                span.mark("snapshot");
+                UtilityMethods.debug(dataSource.getPlugin(), "SQL", () -> "Loaded data of '" + data.getUniqueId() + "' from handoff cache, time taken: " + (System.currentTimeMillis() - start) + "ms");
+            } else if (claimed || force) {
+                if (force) discardSnapshot();
+                prepare = connection.prepareStatement(dataSource.getQuery(queries.select()));
+                prepare.setString(1, data.getUniqueId().toString());
+                result = prepare.executeQuery();
+                span.mark("query");
+
+                // Load data if found
+                if (result.next()) {
                     loadData(result);
-                    if (tries > WyndoriaLib.instance.getConfigManager().maxSyncTries)
+                    span.mark("deserialize");
+                    if (force)
                         UtilityMethods.debug(dataSource.getPlugin(), "SQL", "Maximum number of tries reached.");
-                    UtilityMethods.debug(dataSource.getPlugin(), "SQL", "Found and loaded data of '" + data.getUniqueId() + "'");
-                    UtilityMethods.debug(dataSource.getPlugin(), "SQL", "Time taken: " + (System.currentTimeMillis() - start) + "ms");
+                    UtilityMethods.debug(dataSource.getPlugin(), "SQL", () -> "Found and loaded data of '" + data.getUniqueId() + "', time taken: " + (System.currentTimeMillis() - start) + "ms");
                 } else {
-                    UtilityMethods.debug(dataSource.getPlugin(), "SQL", "Did not load data of '" + data.getUniqueId() + "' as 'is_saved' is set to 0, trying again in " + PERIOD + "ms");
-                    retry = true;
-                    Thread.sleep(PERIOD);
+                    confirmReception(connection);
+                    loadEmpty();
+                }
+            }
+
+            // Data is still being saved by another server
+            else if (rowExists) retry = true;
+
+            // Either data is still being saved by another server, or there is no data yet.
+            // Creating the row claims it straight away, no row is created if it already exists
+            else {
+                rowExists = dataSource.update(connection, queries.create(), data.getUniqueId()) == 0;
+                span.mark("query");
+                retry = rowExists;
+                if (!retry) {
+                    discardSnapshot();
+                    loadEmpty();
                 }
-            } else {
-                // Empty player data
-                confirmReception(connection);
-                loadEmptyData();
-                UtilityMethods.debug(dataSource.getPlugin(), "SQL", "Found empty data for '" + data.getUniqueId() + "', loading default...");
             }
         } catch (Exception throwable) {
+            if (throwable instanceof SQLTransientConnectionException)
+                metrics().increment(DataMetrics.CONNECTION_TIMEOUTS, dataSource.getPlugin().getName(), BACKEND);
             dataSource.getPlugin().getLogger().log(LogLevel.WARNING, "Could not load player data of '" + data.getUniqueId() + "':");
             throwable.printStackTrace();
+            future.completeExceptionally(throwable);
         } finally {
             // Close resources
             try {
@@ -91,9 +289,82 @@ public abstract class SQLDataSynchronizer<H extends SynchronizedDataHolder> {
             }
         }
 
-        // Synchronize after closing resources
-        if (retry) synchronize();
+        // Schedule next try after closing resources, no thread nor load slot is held while waiting
+        if (retry) {
+            if (admission != null) admission.release();
+            if (waitingSince == 0) waitingSince = System.currentTimeMillis();
+            final long delay = nextDelay();
+            UtilityMethods.debug(dataSource.getPlugin(), "SQL", () -> "Did not load data of '" + data.getUniqueId() + "' as 'is_saved' is set to 0, trying again " + (saved == null ? "" : "once notified or ") + "in " + delay + "ms");
+
+            // Whichever comes first, notification or delay
+            final AtomicBoolean retried = new AtomicBoolean();
+            final Runnable next = () -> {
+                if (!retried.compareAndSet(false, true)) return;
+                if (saved != null) saved.cancel(false);
+                if (admission == null) submit();
+                else admission.readmit().whenComplete((unused, throwable) -> {
+                    if (throwable == null) submit();
+                    else future.completeExceptionally(throwable);
+                });
+            };
+            if (saved != null) saved.thenRun(next);
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(next);
+        } else {
+            if (saved != null) saved.cancel(false);
+            if (future.complete(null)) {
+                metrics().record(DataMetrics.RETRIES, dataSource.getPlugin().getName(), BACKEND, tries - 1);
+                if (waitingSince != 0)
+                    metrics().record(DataMetrics.HANDOFF_WAIT, dataSource.getPlugin().getName(), BACKEND, System.currentTimeMillis() - waitingSince);
+            }
+        }
+    }
+
+    /**
+     * Takes the snapshot of the player from the handoff cache. The snapshot
+     * is removed even when unused so that it can never be read later on.
+     *
+     * @return If the data was loaded from the snapshot
+     */
+    private boolean loadSnapshot() {
+        if (handoffCache == null) return false;
+
+        try {
+            final @Nullable byte[] snapshot = handoffCache.take(handoffNamespace, data.getUniqueId());
+            if (snapshot == null || snapshotCodec == null) return false;
+            snapshotCodec.decode(data, snapshot);
+            return true;
+        } catch (Exception exception) {
+            dataSource.getPlugin().getLogger().log(LogLevel.WARNING, "Could not read handoff snapshot of '" + data.getUniqueId() + "', loading it from database:");
+            exception.printStackTrace();
+            return false;
+        }
+    }
+
+    private void discardSnapshot() {
+        if (handoffCache != null) try {
+            handoffCache.invalidate(handoffNamespace, data.getUniqueId());
+        } catch (Exception exception) {
+            exception.printStackTrace();
+        }
+    }
 
+    /**
+     * Exponential backoff capped to {@link #PERIOD}, with some random jitter
+     * so that players transferring at the same time don't retry all at once.
+     *
+     * @return Delay in milliseconds before the next try
+     */
+    private long nextDelay() {
+        final long base = Math.min(PERIOD, (long) INITIAL_DELAY << Math.min(tries - 1, 16));
+        final double jitter = 1 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        return Math.max(1, (long) (base * jitter));
+    }
+
+    private void loadEmpty() {
+        // Empty player data
+        loadEmptyData();
+        Tracer.span(dataSource.getPlugin(), "load", data.getUniqueId()).mark("empty");
+        UtilityMethods.debug(dataSource.getPlugin(), "SQL", () -> "Found empty data for '" + data.getUniqueId() + "', loading default...");
     }
 
     /**
@@ -105,18 +376,30 @@ public abstract class SQLDataSynchronizer<H extends SynchronizedDataHolder> {
     private void confirmReception(Connection connection) throws SQLException {
 
         // Confirm reception of inventory
-        final PreparedStatement prepared1 = connection.prepareStatement("INSERT INTO " + tableName + "(`uuid`, `is_saved`) VALUES(?, 0) ON DUPLICATE KEY UPDATE `is_saved` = 0;");
-        prepared1.setString(1, data.getUniqueId().toString());
         try {
-            prepared1.executeUpdate();
+            dataSource.update(connection, queries().confirm(), data.getUniqueId());
         } catch (Exception exception) {
             dataSource.getPlugin().getLogger().log(LogLevel.WARNING, "Could not confirm data sync of " + data.getUniqueId());
             exception.printStackTrace();
-        } finally {
-            prepared1.close();
         }
     }
 
+    /**
+     * Switches "is_saved" back to 1 without saving anything, when the
+     * data did not change since it was last saved. This lets other
+     * servers load the data straight away.
+     */
+    public void release() {
+        dataSource.execute(connection -> {
+            try {
+                dataSource.update(connection, queries().release(), data.getUniqueId());
+            } catch (SQLException exception) {
+                dataSource.getPlugin().getLogger().log(LogLevel.WARNING, "Could not release data of " + data.getUniqueId());
+                exception.printStackTrace();
+            }
+        });
+    }
+
     /**
      * Called when the right result set has finally been found.
      *
@@ -129,4 +412,4 @@ public abstract class SQLDataSynchronizer<H extends SynchronizedDataHolder> {
      */
     public abstract void loadEmptyData();
 
-}
\ No newline at end of file
+}
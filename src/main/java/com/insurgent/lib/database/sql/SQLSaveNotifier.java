@@ -0,0 +1,165 @@
+package com.insurgent.lib.database.sql;
+
+import cn.nukkit.utils.LogLevel;
+import com.insurgent.lib.WyndoriaLib;
+import com.insurgent.lib.database.handoff.SaveNotifier;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends notifications through a table of the database shared by all servers.
+ * While some loads are waiting, a single query reads new notifications every
+ * {@link #POLL_INTERVAL} milliseconds, so that waiting players do not wait
+ * for their next try. Notifications are deleted after a few minutes.
+ * <p>
+ * Ids are not committed in order: a notification can be committed after
+ * one with a higher id was already read. Skipped ids are read again for
+ * {@link #GAP_TIMEOUT} milliseconds in case they show up later on.
+ */
+public class SQLSaveNotifier extends SaveNotifier {
+    private final SQLDataSource dataSource;
+    private final AtomicBoolean polling = new AtomicBoolean();
+
+    /**
+     * Id of the latest notification read, or -1 if the table is not set up yet
+     */
+    private volatile long lastId = -1;
+    private long lastCleanup;
+
+    /**
+     * Ids below {@link #lastId} which were not read yet, and the time at which
+     * they were skipped. Only accessed by the poll currently running.
+     */
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();
+
+    private static final String TABLE = "wyndorialib_save_notifications";
+    private static final String PUBLISH = "notify_publish", READ = "notify_read", LAST = "notify_last", CLEANUP = "notify_cleanup";
+    private static final long POLL_INTERVAL = 250, CLEANUP_PERIOD = 60000, GAP_TIMEOUT = 10000;
+
+    /**
+     * Maximum amount of skipped ids read again, ids are only
+     * skipped by transactions still running or rolled back
+     */
+    private static final int MAX_GAPS = 1000;
+
+    public SQLSaveNotifier(@NotNull SQLDataSource dataSource) {
+        this.dataSource = dataSource;
+
+        dataSource.registerQuery(PUBLISH, "INSERT INTO `" + TABLE + "` (`namespace`, `uuid`) VALUES (?, ?);");
+        dataSource.registerQuery(READ, "SELECT `id`, `namespace`, `uuid` FROM `" + TABLE + "` WHERE `id` > ? ORDER BY `id`;");
+        dataSource.registerQuery(LAST, "SELECT COALESCE(MAX(`id`), 0) FROM `" + TABLE + "`;");
+        dataSource.registerQuery(CLEANUP, "DELETE FROM `" + TABLE + "` WHERE `created` < NOW() - INTERVAL 5 MINUTE;");
+    }
+
+    @Override
+    public void publish(@NotNull String namespace, @NotNull UUID uuid) {
+        try {
+            setup();
+            dataSource.update(PUBLISH, namespace, uuid);
+        } catch (SQLException exception) {
+            dataSource.getPlugin().getLogger().log(LogLevel.WARNING, "Could not notify save of '" + uuid + "':");
+            exception.printStackTrace();
+        }
+    }
+
+    /**
+     * Creates the table and skips previous notifications.
+     */
+    private synchronized void setup() throws SQLException {
+        if (lastId >= 0) return;
+
+        dataSource.execute(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS `" + TABLE + "` (`id` BIGINT NOT NULL AUTO_INCREMENT, `namespace` VARCHAR(64) NOT NULL, "
+                        + "`uuid` VARCHAR(36) NOT NULL, `created` TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, PRIMARY KEY (`id`), INDEX (`created`));");
+            } catch (SQLException exception) {
+                dataSource.getPlugin().getLogger().log(LogLevel.WARNING, "Could not create table '" + TABLE + "':");
+                exception.printStackTrace();
+            }
+        });
+        lastId = dataSource.query(LAST, result -> result.next() ? result.getLong(1) : 0);
+    }
+
+    /**
+     * Loads wait for notifications from the data executor, so the
+     * table can be set up here without blocking the main thread.
+     */
+    @Override
+    protected void onWait() {
+        if (lastId < 0) try {
+            setup();
+        } catch (SQLException exception) {
+            dataSource.getPlugin().getLogger().log(LogLevel.WARNING, "Could not set up save notifications:");
+            exception.printStackTrace();
+        }
+
+        schedulePoll();
+    }
+
+    private void schedulePoll() {
+        if (!polling.compareAndSet(false, true)) return;
+
+        CompletableFuture.delayedExecutor(POLL_INTERVAL, TimeUnit.MILLISECONDS).execute(() -> {
+            try {
+                WyndoriaLib.instance.getDataExecutor().execute(this::poll);
+            } catch (RejectedExecutionException exception) {
+                polling.set(false);
+            }
+        });
+    }
+
+    private void poll() {
+        try {
+            setup();
+
+            // Read again from the oldest skipped id
+            final long now = System.currentTimeMillis();
+            gaps.values().removeIf(skipped -> now - skipped > GAP_TIMEOUT);
+            final long from = gaps.isEmpty() ? lastId : Math.min(lastId, gaps.firstKey() - 1);
+            dataSource.query(READ, this::readNotifications, from);
+
+            if (now - lastCleanup > CLEANUP_PERIOD) {
+                lastCleanup = now;
+                dataSource.update(CLEANUP);
+            }
+        } catch (SQLException exception) {
+            dataSource.getPlugin().getLogger().log(LogLevel.WARNING, "Could not read save notifications:");
+            exception.printStackTrace();
+        } finally {
+            polling.set(false);
+            if (hasWaiting()) schedulePoll();
+        }
+    }
+
+    private Void readNotifications(ResultSet result) throws SQLException {
+        final long now = System.currentTimeMillis();
+        while (result.next()) {
+            final long id = result.getLong(1);
+
+            // Already read, unless that id was skipped
+            if (id <= lastId) {
+                if (gaps.remove(id) == null) continue;
+            } else {
+                for (long skipped = lastId + 1; skipped < id && gaps.size() < MAX_GAPS; skipped++)
+                    gaps.put(skipped, now);
+                lastId = id;
+            }
+
+            try {
+                wake(result.getString(2), UUID.fromString(result.getString(3)));
+            } catch (IllegalArgumentException ignored) {
+                // Malformed unique id
+            }
+        }
+        return null;
+    }
+}
@@ -1,33 +1,418 @@
 package com.insurgent.lib.database.sql;
 
+import cn.nukkit.utils.LogLevel;
+import com.insurgent.lib.WyndoriaLib;
 import com.insurgent.lib.database.OfflineDataHolder;
 import com.insurgent.lib.database.SynchronizedDataHandler;
 import com.insurgent.lib.database.SynchronizedDataHolder;
+import com.insurgent.lib.database.codec.BinaryCodec;
+import com.insurgent.lib.database.codec.SQLCodec;
+import com.insurgent.lib.database.handoff.HandoffCache;
+import com.insurgent.lib.database.handoff.SaveNotifier;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class SQLSynchronizedDataHandler<H extends SynchronizedDataHolder, O extends OfflineDataHolder, S extends SQLDataSynchronizer> implements SynchronizedDataHandler<H, O> {
     private final SQLDataSource dataSource;
 
+    @Nullable
+    private volatile HandoffCache handoffCache;
+
+    /**
+     * Derived from the codec of this handler the first time it is needed
+     */
+    @Nullable
+    private volatile BinaryCodec<H> snapshotCodec;
+
+    /**
+     * Snapshot buffers are reused by every handoff made on the same thread
+     */
+    private static final ThreadLocal<SnapshotBuffer> SNAPSHOT_BUFFER = ThreadLocal.withInitial(SnapshotBuffer::new);
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+
+    /**
+     * Time at which players were last fully saved by this handler. Their offline
+     * data is read from the primary pool until the read pool catches up.
+     * Only used when offline data is loaded in bulk from the read pool.
+     */
+    private final Map<UUID, Long> recentSaves = new ConcurrentHashMap<>();
+    private volatile long lastPrune;
+
     public SQLSynchronizedDataHandler(SQLDataSource dataSource) {
         this.dataSource = dataSource;
     }
 
+    @Override
+    public String getBackend() {
+        return "sql";
+    }
+
     public SQLDataSource getDataSource() {
         return dataSource;
     }
 
     @Override
     public CompletableFuture<Void> loadData(H playerdata) {
-        return CompletableFuture.runAsync(() -> {
+        final SQLDataSynchronizer synchronizer = newDataSynchronizer(playerdata);
+        final @Nullable HandoffCache cache = handoffCache;
+        final @Nullable BinaryCodec<H> codec = getSnapshotCodec();
+        if (cache != null) synchronizer.useHandoffCache(cache, getHandoffNamespace(), codec);
+        final @Nullable SaveNotifier notifier = getSaveNotifier();
+        if (notifier != null) synchronizer.useSaveNotifier(notifier, getHandoffNamespace());
+        return synchronizer.synchronize();
+    }
+
+    /**
+     * Wakes up servers waiting for that player data.
+     */
+    @Override
+    public void notifySaved(H playerData) {
+        recordSave(playerData.getUniqueId());
+        final @Nullable SaveNotifier notifier = getSaveNotifier();
+        if (notifier != null) notifier.publish(getHandoffNamespace(), playerData.getUniqueId());
+    }
+
+    /**
+     * Channel used to notify servers waiting for player data once it is
+     * saved, so that they do not wait for their next try to load it.
+     * By default, this is the channel of the data source.
+     *
+     * @return Save notifier, or null to only rely on regular tries
+     */
+    @Nullable
+    public SaveNotifier getSaveNotifier() {
+        return dataSource.getSaveNotifier();
+    }
+
+    /**
+     * Writes a snapshot of the player data to the handoff cache before it is
+     * saved, so that the next server can skip reading it from the database.
+     */
+    @Override
+    public void handOff(H playerData) {
+        final @Nullable HandoffCache cache = handoffCache;
+        final @Nullable BinaryCodec<H> codec = getSnapshotCodec();
+        if (cache == null || codec == null) return;
+
+        try {
+            cache.put(getHandoffNamespace(), playerData.getUniqueId(), encodeSnapshot(codec, playerData), WyndoriaLib.instance.getConfigManager().handoffCacheExpiry);
+        } catch (Exception exception) {
+            dataSource.getPlugin().getLogger().log(LogLevel.WARNING, "Could not hand off data of '" + playerData.getUniqueId() + "':");
+            exception.printStackTrace();
+            discardSnapshots(List.of(playerData));
+        }
+    }
+
+    /**
+     * Same format as {@link BinaryCodec#encode(Object)}, written to a reused buffer
+     */
+    private byte[] encodeSnapshot(BinaryCodec<H> codec, H playerData) throws IOException {
+        final SnapshotBuffer buffer = SNAPSHOT_BUFFER.get();
+        buffer.reset();
+        buffer.output.writeInt(codec.getVersion());
+        codec.encode(playerData, buffer.output);
+        final byte[] snapshot = buffer.toByteArray();
+        buffer.trim();
+        return snapshot;
+    }
+
+    private static class SnapshotBuffer extends ByteArrayOutputStream {
+        private final DataOutputStream output = new DataOutputStream(this);
+
+        private SnapshotBuffer() {
+            super(1024);
+        }
+
+        /**
+         * Drops buffers grown by exceptionally large player datas
+         */
+        private void trim() {
+            if (buf.length > MAX_RETAINED_BUFFER) buf = new byte[1024];
+        }
+    }
+
+    /**
+     * Removes snapshots which would be older than the data about to be
+     * saved. Only the final save of a player writes a snapshot, every
+     * other save must discard it, otherwise the next server could read
+     * a snapshot taken before that save.
+     */
+    private void discardSnapshots(Collection<H> playerData) {
+        final @Nullable HandoffCache cache = handoffCache;
+        if (cache == null) return;
+
+        for (H holder : playerData)
             try {
-                newDataSynchronizer(playerdata).synchronize();
-            } catch (Throwable throwable) {
-                throwable.printStackTrace();
+                cache.invalidate(getHandoffNamespace(), holder.getUniqueId());
+            } catch (Exception exception) {
+                dataSource.getPlugin().getLogger().log(LogLevel.WARNING, "Could not discard handoff snapshot of '" + holder.getUniqueId() + "':");
+                exception.printStackTrace();
+            }
+    }
+
+    /**
+     * Sets the cache used to hand off player data between servers. Every
+     * server using the same database must use the same cache.
+     *
+     * @param handoffCache Handoff cache, or null to always load data from the database
+     */
+    public void setHandoffCache(@Nullable HandoffCache handoffCache) {
+        this.handoffCache = handoffCache;
+    }
+
+    @Nullable
+    public HandoffCache getHandoffCache() {
+        return handoffCache;
+    }
+
+    /**
+     * Codec used to serialize snapshots written to the handoff cache.
+     * By default, it is derived once from the codec provided by {@link #getCodec()}.
+     *
+     * @return Snapshot codec, or null if data cannot be handed off
+     */
+    @Nullable
+    public BinaryCodec<H> getSnapshotCodec() {
+        @Nullable BinaryCodec<H> codec = snapshotCodec;
+        if (codec == null) {
+            final @Nullable SQLCodec<H> sqlCodec = getCodec();
+            if (sqlCodec == null) return null;
+            snapshotCodec = codec = new BinaryCodec<>(sqlCodec.getSchema());
+        }
+        return codec;
+    }
+
+    /**
+     * @return Key under which snapshots and notifications of this handler are stored
+     */
+    @NotNull
+    public String getHandoffNamespace() {
+        return dataSource.getPlugin().getName();
+    }
+
+    @Override
+    public void releaseData(H playerData) {
+        newDataSynchronizer(playerData).release();
+    }
+
+    /**
+     * Saves player datas in JDBC batches over a single connection when
+     * {@link #getBatchSave()} is provided, otherwise they are saved one
+     * by one using {@link #saveData(SynchronizedDataHolder, boolean)}.
+     * <p>
+     * If a batch fails, the player datas from that batch are saved again
+     * one by one so that one faulty row does not prevent others from saving.
+     * Handoff snapshots of these players are discarded first.
+     */
+    @Override
+    public Set<UUID> saveAll(Collection<H> playerData, boolean autosave) {
+        discardSnapshots(playerData);
+        final @Nullable BatchSave<H> batchSave = getBatchSave();
+        if (batchSave == null) return SynchronizedDataHandler.super.saveAll(playerData, autosave);
+
+        final int batchSize = WyndoriaLib.instance.getConfigManager().saveBatchSize;
+        final List<H> failed = new ArrayList<>();
+        final Set<UUID> saved = new HashSet<>();
+        final AtomicInteger batches = new AtomicInteger();
+        dataSource.execute(connection -> {
+            final List<H> batch = new ArrayList<>(batchSize);
+            for (H holder : playerData) {
+                batch.add(holder);
+                if (batch.size() >= batchSize) {
+                    executeBatch(connection, batchSave, batch, autosave, saved, failed);
+                    batches.incrementAndGet();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                executeBatch(connection, batchSave, batch, autosave, saved, failed);
+                batches.incrementAndGet();
+            }
+        });
+
+        // Could not open connection
+        if (batches.get() == 0) return SynchronizedDataHandler.super.saveAll(playerData, autosave);
+
+        if (!failed.isEmpty()) saved.addAll(SynchronizedDataHandler.super.saveAll(failed, autosave));
+        if (!autosave) saved.forEach(this::recordSave);
+        return saved;
+    }
+
+    private void recordSave(UUID uuid) {
+        if (!dataSource.hasReadPool() || getOfflineBulkQuery() == null) return;
+
+        final long now = System.currentTimeMillis();
+        recentSaves.put(uuid, now);
+
+        // Saves older than the read pool lag are removed at most once per lag period
+        if (now - lastPrune < dataSource.getReadMaxLag()) return;
+        lastPrune = now;
+        final long savedAfter = now - dataSource.getReadMaxLag();
+        recentSaves.values().removeIf(time -> time < savedAfter);
+    }
+
+    private void executeBatch(Connection connection, BatchSave<H> batchSave, List<H> batch, boolean autosave, Set<UUID> saved, List<H> failed) {
+        if (executeBatch(connection, batchSave, batch, autosave))
+            for (H holder : batch)
+                saved.add(holder.getUniqueId());
+        else failed.addAll(batch);
+    }
+
+    private boolean executeBatch(Connection connection, BatchSave<H> batchSave, List<H> batch, boolean autosave) {
+        PreparedStatement statement = null;
+        try {
+            connection.setAutoCommit(false);
+            statement = connection.prepareStatement(batchSave.getStatement());
+            for (H holder : batch) {
+                batchSave.bind(statement, holder, autosave);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
+            return true;
+        } catch (SQLException | RuntimeException exception) {
+            dataSource.getPlugin().getLogger().log(LogLevel.WARNING, "Could not save batch of " + batch.size() + " player datas, saving them one by one:");
+            exception.printStackTrace();
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return false;
+        } finally {
+            try {
+                if (statement != null) statement.close();
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Statement used to save many player datas in a single JDBC batch. Batch
+     * saving is opt-in: by default, this is the upsert of the codec provided
+     * by {@link #getCodec()}, and player datas are saved one by one when
+     * there is no codec.
+     *
+     * @return Batch save, or null if this handler does not support batch saving
+     */
+    @Nullable
+    public BatchSave<H> getBatchSave() {
+        final @Nullable SQLCodec<H> codec = getCodec();
+        return codec == null ? null : new BatchSave<>() {
+            @Override
+            public String getStatement() {
+                return codec.getUpsertStatement();
+            }
+
+            @Override
+            public void bind(PreparedStatement statement, H playerData, boolean autosave) throws SQLException {
+                codec.bind(statement, playerData, !autosave);
+            }
+        };
+    }
+
+    /**
+     * Codec mapping player data to table columns. Synchronizers can use
+     * {@link SQLCodec#getColumns()} and {@link SQLCodec#decode(SynchronizedDataHolder, ResultSet)}
+     * to implement {@link SQLDataSynchronizer#getSelectedColumns()} and
+     * {@link SQLDataSynchronizer#loadData(ResultSet)}.
+     *
+     * @return Codec or null if columns are mapped manually
+     */
+    @Nullable
+    public SQLCodec<H> getCodec() {
+        return null;
+    }
+
+    /**
+     * Loads offline data using a single query per {@link #OFFLINE_BATCH_SIZE}
+     * players when {@link #getOfflineBulkQuery()} is provided. Players which
+     * have no row in the database are loaded using {@link #getOffline(UUID)}.
+     * <p>
+     * Offline data is only displayed, for instance in friend lists or
+     * leaderboards, so it is read from the read pool of the data source
+     * which may lag behind. Players fully saved by this handler less than
+     * {@link SQLDataSource#getReadMaxLag()} ago are read from the primary
+     * pool instead, so that the data cached by the manager right after a
+     * player logs off is never older than their last save.
+     */
+    @Override
+    public CompletableFuture<Map<UUID, O>> getOfflineAll(Collection<UUID> uuids) {
+        final @Nullable OfflineBulkQuery<O> bulkQuery = getOfflineBulkQuery();
+        if (bulkQuery == null) return SynchronizedDataHandler.super.getOfflineAll(uuids);
+
+        final long savedAfter = System.currentTimeMillis() - dataSource.getReadMaxLag();
+        recentSaves.values().removeIf(time -> time < savedAfter);
+        final List<UUID> primary = new ArrayList<>(), read = new ArrayList<>();
+        for (UUID uuid : uuids)
+            (recentSaves.containsKey(uuid) ? primary : read).add(uuid);
+
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                final Map<UUID, O> found = new HashMap<>();
+                if (!primary.isEmpty()) loadOffline(SQLDataSource.Route.PRIMARY, bulkQuery, primary, found);
+                if (!read.isEmpty()) loadOffline(SQLDataSource.Route.READ, bulkQuery, read, found);
+
+                for (UUID uuid : uuids)
+                    if (!found.containsKey(uuid)) found.put(uuid, getOffline(uuid));
+                return found;
+            }, WyndoriaLib.instance.getDataExecutor());
+        } catch (RejectedExecutionException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+    }
+
+    private void loadOffline(SQLDataSource.Route route, OfflineBulkQuery<O> bulkQuery, List<UUID> uuids, Map<UUID, O> found) {
+        final String query = bulkQuery.getStatement();
+        dataSource.execute(route, connection -> {
+            for (int from = 0; from < uuids.size(); from += OFFLINE_BATCH_SIZE) {
+                final List<UUID> batch = uuids.subList(from, Math.min(uuids.size(), from + OFFLINE_BATCH_SIZE));
+                final String placeholders = String.join(", ", Collections.nCopies(batch.size(), "?"));
+                try (PreparedStatement statement = connection.prepareStatement(query.replace("%s", placeholders))) {
+                    for (int i = 0; i < batch.size(); i++)
+                        statement.setString(i + 1, batch.get(i).toString());
+                    try (ResultSet result = statement.executeQuery()) {
+                        while (result.next()) {
+                            final O offline = bulkQuery.load(result);
+                            found.put(offline.getUniqueId(), offline);
+                        }
+                    }
+                } catch (SQLException exception) {
+                    dataSource.getPlugin().getLogger().log(LogLevel.WARNING, "Could not load offline data of " + batch.size() + " players:");
+                    exception.printStackTrace();
+                }
             }
         });
     }
 
+    private static final int OFFLINE_BATCH_SIZE = 500;
+
+    /**
+     * Query used to load offline data of several players at once. Bulk loading
+     * is opt-in, offline data is loaded one player at a time by default.
+     *
+     * @return Bulk query or null if this handler does not support it
+     */
+    @Nullable
+    public OfflineBulkQuery<O> getOfflineBulkQuery() {
+        return null;
+    }
+
     @Override
     public void close() {
         getDataSource().close();
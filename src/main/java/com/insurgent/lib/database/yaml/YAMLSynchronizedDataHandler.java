@@ -3,49 +3,155 @@ package com.insurgent.lib.database.yaml;
 import cn.nukkit.plugin.Plugin;
 import cn.nukkit.utils.Config;
 import cn.nukkit.utils.ConfigSection;
+import cn.nukkit.utils.LogLevel;
+import com.insurgent.lib.UtilityMethods;
+import com.insurgent.lib.WyndoriaLib;
 import com.insurgent.lib.database.OfflineDataHolder;
 import com.insurgent.lib.database.SynchronizedDataHandler;
 import com.insurgent.lib.database.SynchronizedDataHolder;
+import com.insurgent.lib.database.codec.YAMLCodec;
+import org.jetbrains.annotations.Nullable;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+/**
+ * Stores player data in one YAML file per player.
+ * <p>
+ * Files of a same player are never read and written at the same time, and
+ * files are written to a temporary file first which then replaces the
+ * previous file, so a crash never leaves a half-written file.
+ */
 public abstract class YAMLSynchronizedDataHandler<H extends SynchronizedDataHolder, O extends OfflineDataHolder> implements SynchronizedDataHandler<H, O> {
     private final Plugin owning;
+    private final File dataFolder;
+    private volatile boolean folderCreated;
+
+    /**
+     * Striped locks, the lock of a player is picked using its unique id
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private static final int LOCK_STRIPES = 64;
+
+    private static final ThreadLocal<Yaml> YAML = ThreadLocal.withInitial(() -> {
+        final DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        return new Yaml(options);
+    });
 
     public YAMLSynchronizedDataHandler(Plugin owning) {
         this.owning = Objects.requireNonNull(owning, "Plugin cannot be null");
+        this.dataFolder = new File(owning.getDataFolder(), "userdata");
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+    }
+
+    @Override
+    public String getBackend() {
+        return "yaml";
     }
 
+    /**
+     * Saves data on the calling thread. Player data is usually saved
+     * asynchronously by the data manager, see {@link #saveDataAsync(SynchronizedDataHolder)}
+     * to save data from the main thread.
+     *
+     * @throws UncheckedIOException If the file could not be written
+     */
     @Override
     public void saveData(H playerData, boolean autosave) {
-        final Config config = getUserFile(playerData);
-        saveInSection(playerData, config.getRootSection());
-        config.save();
+        synchronized (getLock(playerData.getUniqueId())) {
+            final File file = getUserFile(playerData.getUniqueId());
+            final ConfigSection root = file.exists() ? new Config(file, Config.YAML).getRootSection() : new ConfigSection();
+            saveInSection(playerData, root);
+
+            // Serialize in memory then replace previous file
+            try {
+                UtilityMethods.writeAtomically(file, YAML.get().dump(root).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException exception) {
+                throw new UncheckedIOException("Could not save data of '" + playerData.getUniqueId() + "'", exception);
+            }
+        }
+    }
+
+    /**
+     * Saves data using the data executor.
+     *
+     * @param playerData Player data to save
+     * @return Future completed once the data is saved
+     */
+    public CompletableFuture<Void> saveDataAsync(H playerData) {
+        return CompletableFuture.runAsync(() -> saveData(playerData, false), WyndoriaLib.instance.getDataExecutor());
     }
 
-    public abstract void saveInSection(H playerData, ConfigSection config);
+    /**
+     * Saves data in the root section of the player file. By default,
+     * this uses the codec provided by {@link #getCodec()}.
+     */
+    public void saveInSection(H playerData, ConfigSection config) {
+        requireCodec().encode(playerData, config);
+    }
 
     @Override
     public CompletableFuture<Void> loadData(H playerData) {
         return CompletableFuture.runAsync(() -> {
             try {
-                Config config = getUserFile(playerData);
-                loadFromSection(playerData, config.getRootSection());
-            } catch (Throwable throwable) {
-                throwable.printStackTrace();
+                synchronized (getLock(playerData.getUniqueId())) {
+                    final File file = getUserFile(playerData.getUniqueId());
+                    loadFromSection(playerData, file.exists() ? new Config(file, Config.YAML).getRootSection() : new ConfigSection());
+                }
+            } catch (RuntimeException exception) {
+                owning.getLogger().log(LogLevel.WARNING, "Could not load data of '" + playerData.getUniqueId() + "':");
+                exception.printStackTrace();
+                throw new CompletionException(exception);
             }
-        });
+        }, WyndoriaLib.instance.getDataExecutor());
+    }
+
+    public void loadFromSection(H playerData, ConfigSection config) {
+        requireCodec().decode(playerData, config);
+    }
+
+    /**
+     * Codec used to save and load data when {@link #saveInSection(SynchronizedDataHolder, ConfigSection)}
+     * and {@link #loadFromSection(SynchronizedDataHolder, ConfigSection)} are not overridden.
+     *
+     * @return Codec or null if fields are serialized manually
+     */
+    @Nullable
+    public YAMLCodec<H> getCodec() {
+        return null;
     }
 
-    public abstract void loadFromSection(H playerData, ConfigSection config);
+    private YAMLCodec<H> requireCodec() {
+        return Objects.requireNonNull(getCodec(), "Codec cannot be null when sections are not serialized manually");
+    }
+
+    public File getDataFolder() {
+        return dataFolder;
+    }
+
+    /**
+     * @return Lock which must be held while reading or writing the file of that player
+     */
+    public Object getLock(UUID uuid) {
+        return locks[(uuid.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
 
-    private Config getUserFile(H playerData) {
-        File dataFolder = new File(owning.getDataFolder(), "userdata");
-        if (!dataFolder.exists()) {
-            dataFolder.mkdirs();
+    private File getUserFile(UUID uuid) {
+        if (!folderCreated) {
+            if (!dataFolder.exists()) dataFolder.mkdirs();
+            folderCreated = true;
         }
-        return new Config(new File(dataFolder, playerData.getUniqueId().toString() + ".yml"), Config.YAML);
+        return new File(dataFolder, uuid + ".yml");
     }
 }
@@ -2,11 +2,25 @@ package com.insurgent.lib.manager;
 
 import cn.nukkit.utils.Config;
 import com.insurgent.lib.WyndoriaLib;
+import com.insurgent.lib.trace.Tracer;
 
 public class ConfigManager {
 
     public boolean debugMode;
     public int maxSyncTries;
+    public boolean ioVirtualThreads;
+    public int ioThreads, ioMaxPending;
+    public int saveBatchSize;
+    public long shutdownSaveTimeout;
+    public int playerCacheSize, playerCacheSweepPeriod;
+    public int offlineCacheSize;
+    public long offlineCacheExpiry;
+    public long handoffCacheExpiry;
+    public int maxConcurrentLoads;
+    public boolean autosaveEnabled;
+    public int autosaveShards;
+    public long autosaveInterval, autosaveMaxLatency;
+    public boolean metricsJmx;
 
     public void reload() {
 
@@ -16,6 +30,23 @@ public class ConfigManager {
 
         Config config = WyndoriaLib.instance.getConfig();
         this.debugMode = config.getBoolean("debug");
+        Tracer.setEnabled(debugMode);
         this.maxSyncTries = config.getInt("max-sync-tries");
+        this.ioVirtualThreads = config.getString("io-executor.type", "platform").equalsIgnoreCase("virtual");
+        this.ioThreads = config.getInt("io-executor.threads", 10);
+        this.ioMaxPending = config.getInt("io-executor.max-pending", 1000);
+        this.saveBatchSize = Math.max(1, config.getInt("save-batch-size", 100));
+        this.shutdownSaveTimeout = config.getLong("shutdown-save-timeout", 10000);
+        this.playerCacheSize = config.getInt("player-cache.max-size", 10000);
+        this.playerCacheSweepPeriod = Math.max(1, config.getInt("player-cache.sweep-period", 300));
+        this.offlineCacheSize = config.getInt("offline-cache.max-size", 1000);
+        this.offlineCacheExpiry = config.getLong("offline-cache.expire-after", 300) * 1000;
+        this.handoffCacheExpiry = config.getLong("handoff-cache.expire-after", 60) * 1000;
+        this.maxConcurrentLoads = Math.max(1, config.getInt("max-concurrent-loads", 10));
+        this.autosaveEnabled = config.getBoolean("autosave.enabled", true);
+        this.autosaveInterval = config.getLong("autosave.interval", 300) * 1000;
+        this.autosaveShards = Math.max(1, config.getInt("autosave.shards", 10));
+        this.autosaveMaxLatency = config.getLong("autosave.max-latency", 2000);
+        this.metricsJmx = config.getBoolean("metrics.jmx", true);
     }
 }
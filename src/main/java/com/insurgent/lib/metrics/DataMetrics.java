@@ -0,0 +1,146 @@
+package com.insurgent.lib.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of the database layer. Histograms and counters are broken down
+ * per data manager (the name of the plugin owning it) and per backend,
+ * gauges are read when metrics are displayed.
+ * <p>
+ * Metrics are always recorded, as recording only costs a map lookup and
+ * a few counter increments. They can be displayed using the
+ * <code>/wyndorialib metrics</code> command or read through JMX.
+ */
+public class DataMetrics implements DataMetricsMXBean {
+    private final Map<Key, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<Key, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<Number>> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * Histograms
+     */
+    public static final String LOAD_LATENCY = "load.latency", SAVE_LATENCY = "save.latency", BATCH_SAVE_LATENCY = "save.batch-latency", QUEUE_WAIT = "load.queue-wait",
+            HANDOFF_WAIT = "load.handoff-wait", RETRIES = "load.retries";
+
+    /**
+     * Counters
+     */
+    public static final String LOAD_FAILURES = "load.failures", SAVE_FAILURES = "save.failures",
+            SYNC_TIMEOUTS = "load.sync-timeouts", CONNECTION_TIMEOUTS = "pool.timeouts";
+
+    private static final String OBJECT_NAME = "com.insurgent.lib:type=DataMetrics";
+
+    /**
+     * @param name    Metric name
+     * @param manager Name of the plugin owning the data
+     * @param backend Storage backend
+     * @return Histogram, created if it does not exist yet
+     */
+    @NotNull
+    public Histogram histogram(@NotNull String name, @NotNull String manager, @NotNull String backend) {
+        return histograms.computeIfAbsent(new Key(name, manager, backend), unused -> new Histogram());
+    }
+
+    public void record(@NotNull String name, @NotNull String manager, @NotNull String backend, long value) {
+        histogram(name, manager, backend).record(value);
+    }
+
+    public void increment(@NotNull String name, @NotNull String manager, @NotNull String backend) {
+        counters.computeIfAbsent(new Key(name, manager, backend), unused -> new LongAdder()).increment();
+    }
+
+    /**
+     * @param name  Unique gauge name
+     * @param gauge Reads the current value
+     */
+    public void registerGauge(@NotNull String name, @NotNull Supplier<Number> gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public void unregisterGauge(@NotNull String name) {
+        gauges.remove(name);
+    }
+
+    @Override
+    public Map<String, Double> getValues() {
+        final Map<String, Double> values = new TreeMap<>();
+        histograms.forEach((key, histogram) -> {
+            values.put(key + ".count", (double) histogram.getCount());
+            values.put(key + ".mean", histogram.getMean());
+            values.put(key + ".p50", (double) histogram.getPercentile(.5));
+            values.put(key + ".p99", (double) histogram.getPercentile(.99));
+            values.put(key + ".max", (double) histogram.getMax());
+        });
+        counters.forEach((key, counter) -> values.put(key.toString(), (double) counter.sum()));
+        gauges.forEach((name, gauge) -> {
+            try {
+                values.put(name, gauge.get().doubleValue());
+            } catch (RuntimeException ignored) {
+                // Closed pool
+            }
+        });
+        return values;
+    }
+
+    @NotNull
+    public Map<Key, Histogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    @NotNull
+    public Map<Key, Long> getCounters() {
+        final Map<Key, Long> values = new TreeMap<>();
+        counters.forEach((key, counter) -> values.put(key, counter.sum()));
+        return values;
+    }
+
+    @NotNull
+    public Map<String, Supplier<Number>> getGauges() {
+        return new TreeMap<>(gauges);
+    }
+
+    @Override
+    public void reset() {
+        histograms.values().forEach(Histogram::reset);
+        counters.values().forEach(LongAdder::reset);
+    }
+
+    public void registerMBean() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) server.registerMBean(this, name);
+    }
+
+    public void unregisterMBean() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+    }
+
+    /**
+     * @param name    Metric name
+     * @param manager Name of the plugin owning the data
+     * @param backend Storage backend
+     */
+    public record Key(String name, String manager, String backend) implements Comparable<Key> {
+
+        @Override
+        public int compareTo(@NotNull Key other) {
+            return toString().compareTo(other.toString());
+        }
+
+        @Override
+        public String toString() {
+            return name + "[" + manager + "/" + backend + "]";
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.insurgent.lib.metrics;
+
+import java.util.Map;
+
+/**
+ * Exposes database metrics through JMX, under <code>com.insurgent.lib:type=DataMetrics</code>
+ */
+public interface DataMetricsMXBean {
+
+    /**
+     * @return Current value of every metric, by name
+     */
+    public Map<String, Double> getValues();
+
+    public void reset();
+}
@@ -0,0 +1,72 @@
+package com.insurgent.lib.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram with exponential buckets, bucket <code>i</code> counting
+ * values lower than <code>2^i</code>. Recording a value only updates a
+ * few striped counters so it can be used on hot paths, at the cost of
+ * percentiles being approximated by the upper bound of their bucket.
+ */
+public class Histogram {
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder(), sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    private static final int BUCKETS = 40;
+
+    public Histogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * @param value Positive value, usually a duration in milliseconds
+     */
+    public void record(long value) {
+        final long positive = Math.max(0, value);
+        buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(positive))].increment();
+        count.increment();
+        sum.add(positive);
+        if (positive > max.get()) max.accumulateAndGet(positive, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMean() {
+        final long count = getCount();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile Between 0 and 1, for instance .99
+     * @return Upper bound of the bucket containing that percentile
+     */
+    public long getPercentile(double percentile) {
+        final long count = getCount();
+        if (count == 0) return 0;
+
+        final long target = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i].sum();
+            if (seen >= target) return Math.min(getMax(), i == 0 ? 0 : (1L << i) - 1);
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (LongAdder bucket : buckets)
+            bucket.reset();
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+}
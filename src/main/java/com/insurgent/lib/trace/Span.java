@@ -0,0 +1,89 @@
+package com.insurgent.lib.trace;
+
+import cn.nukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Times the phases of an operation on the data of a player, for instance
+ * waiting in the load queue, acquiring a connection, claiming the data or
+ * deserializing it. Phases are ended in order, a phase lasting from the end
+ * of the previous phase. Phases ending several times (for instance when
+ * retrying) are added up.
+ *
+ * @see Tracer#start(Plugin, String, UUID)
+ */
+public class Span {
+    private final Plugin plugin;
+    private final String operation;
+    private final UUID uuid;
+    private final long start = System.nanoTime();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    private long last = start;
+
+    /**
+     * Span used when debug mode is off, which records nothing
+     */
+    static final Span NONE = new Span(null, null, null);
+
+    Span(Plugin plugin, String operation, UUID uuid) {
+        this.plugin = plugin;
+        this.operation = operation;
+        this.uuid = uuid;
+    }
+
+    /**
+     * Ends a phase.
+     *
+     * @param phase Phase name
+     */
+    public void mark(@NotNull String phase) {
+        if (this == NONE) return;
+
+        final long now = System.nanoTime();
+        synchronized (this) {
+            phases.merge(phase, now - last, Long::sum);
+            last = now;
+        }
+    }
+
+    /**
+     * Ends the last phase then logs the span.
+     *
+     * @param phase   Last phase name
+     * @param outcome For instance 'loaded' or 'failed'
+     */
+    public void end(@NotNull String phase, @NotNull String outcome) {
+        if (this == NONE) return;
+
+        mark(phase);
+        Tracer.ended(this);
+
+        final StringBuilder builder = new StringBuilder(operation).append(' ').append(outcome).append(" for '").append(uuid).append("' in ")
+                .append((last - start) / 1000000).append("ms");
+        synchronized (this) {
+            phases.forEach((name, duration) -> builder.append(", ").append(name).append('=').append(duration / 1000000).append("ms"));
+        }
+        Tracer.log(plugin, "Trace", builder.toString());
+    }
+
+    public boolean isRecording() {
+        return this != NONE;
+    }
+
+    Plugin getPlugin() {
+        return plugin;
+    }
+
+    String getOperation() {
+        return operation;
+    }
+
+    UUID getUniqueId() {
+        return uuid;
+    }
+}
@@ -0,0 +1,129 @@
+package com.insurgent.lib.trace;
+
+import cn.nukkit.plugin.Plugin;
+import cn.nukkit.utils.LogLevel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Debug messages and per-player spans, only recorded in debug mode.
+ * <p>
+ * Whether debug mode is on is cached in a static field, and messages are
+ * only built once that field has been checked, so disabled tracing costs a
+ * single volatile read. Messages are written to the console by a background
+ * thread so that tracing never blocks the thread being traced. When too
+ * many messages are waiting, new ones are dropped.
+ */
+public class Tracer {
+    private static volatile boolean enabled;
+
+    private static final BlockingQueue<Line> LINES = new ArrayBlockingQueue<>(10000);
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final Map<SpanKey, Span> SPANS = new ConcurrentHashMap<>();
+    private static final Map<String, String> COLOR_PREFIX = new HashMap<>();
+
+    @Nullable
+    private static Thread writer;
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static synchronized void setEnabled(boolean enabled) {
+        Tracer.enabled = enabled;
+        if (!enabled) SPANS.clear();
+        else if (writer == null) {
+            writer = new Thread(Tracer::write, "WyndoriaLib-Trace");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * @param message Only called in debug mode
+     */
+    public static void debug(@NotNull Plugin plugin, @Nullable String prefix, @NotNull Supplier<String> message) {
+        if (enabled) log(plugin, prefix, message.get());
+    }
+
+    /**
+     * @param format    Formatted using {@link String#format(String, Object...)}, only in debug mode
+     * @param arguments Format arguments
+     */
+    public static void debug(@NotNull Plugin plugin, @Nullable String prefix, @NotNull String format, Object... arguments) {
+        if (enabled) log(plugin, prefix, String.format(format, arguments));
+    }
+
+    static void log(Plugin plugin, @Nullable String prefix, String message) {
+        if (!LINES.offer(new Line(plugin, prefix, message))) DROPPED.incrementAndGet();
+    }
+
+    private static void write() {
+        while (true) try {
+            final Line line = LINES.take();
+            final long dropped = DROPPED.getAndSet(0);
+            if (dropped > 0) line.plugin.getLogger().log(LogLevel.WARNING, "[DEBUG] " + dropped + " debug messages were dropped");
+            line.plugin.getLogger().log(LogLevel.INFO, COLOR_PREFIX.getOrDefault(line.plugin.getName(), "") + "[DEBUG" + (line.prefix == null ? "" : ": " + line.prefix) + "] " + line.message);
+        } catch (InterruptedException exception) {
+            return;
+        } catch (Throwable throwable) {
+            throwable.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts a span, which times every phase of an operation on the
+     * data of a player, and is logged as one line once it ends. Only
+     * one span per player, plugin and operation can be active at a time.
+     *
+     * @param plugin    Plugin owning the data
+     * @param operation For instance 'load' or 'save'
+     * @param uuid      Player unique id
+     * @return New span, or a span recording nothing if debug mode is off
+     */
+    @NotNull
+    public static Span start(@NotNull Plugin plugin, @NotNull String operation, @NotNull UUID uuid) {
+        if (!enabled) return Span.NONE;
+
+        final Span span = new Span(plugin, operation, uuid);
+        SPANS.put(new SpanKey(plugin.getName(), operation, uuid), span);
+        return span;
+    }
+
+    /**
+     * Used to record phases of a span started elsewhere, for
+     * instance by the data manager before the data handler is called.
+     *
+     * @return Active span of that player, or a span recording nothing if there is none
+     */
+    @NotNull
+    public static Span span(@NotNull Plugin plugin, @NotNull String operation, @NotNull UUID uuid) {
+        if (!enabled) return Span.NONE;
+
+        final @Nullable Span span = SPANS.get(new SpanKey(plugin.getName(), operation, uuid));
+        return span == null ? Span.NONE : span;
+    }
+
+    static void ended(Span span) {
+        SPANS.remove(new SpanKey(span.getPlugin().getName(), span.getOperation(), span.getUniqueId()), span);
+    }
+
+    static {
+        COLOR_PREFIX.put("WyndoriaLib", "§a");
+    }
+
+    private record Line(Plugin plugin, String prefix, String message) {
+    }
+
+    private record SpanKey(String plugin, String operation, UUID uuid) {
+    }
+}